@@ -0,0 +1,89 @@
+package com.himanshuvirmani.journal;
+
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.StateMachineRegistry;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Sequential reader of a {@link TransitionJournal} directory. Segments are mapped read only one at a time and
+ * their records visited in sequence order; a record torn by a crash ends the replay.
+ */
+public final class JournalReader<T, E> {
+
+    private final File directory;
+
+    private final StateMachineDefinition<T, E> definition;
+
+    public JournalReader(File directory, StateMachineDefinition<T, E> definition) {
+        if (!definition.hasTable())
+            throw new IllegalArgumentException("Journal needs a definition with transitions");
+        this.directory = directory;
+        this.definition = definition;
+    }
+
+    /**
+     * Visits every record of the journal, a negative {@code fromOrdinal} standing for no state.
+     *
+     * @return the number of records visited
+     */
+    public long replay(RecordVisitor visitor) throws IOException {
+        final long fingerprint = definition.getFingerprint();
+        long read = 0;
+        for (File file : JournalSegment.list(directory)) {
+            final JournalSegment segment = JournalSegment.open(file, fingerprint, false);
+            if (segment.getFirstSequence() != read)
+                throw new IOException("Journal segment " + file + " does not follow the previous one");
+            for (int i = 0; i < segment.getCount(); i++) {
+                visitor.visit(read++, segment.entityId(i), segment.from(i), segment.event(i), segment.to(i),
+                        segment.timestamp(i));
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Registers every journaled entity in the state of its last record.
+     *
+     * @return the number of records read
+     */
+    public long replay(final StateMachineRegistry<Long, T, E> registry) throws IOException {
+        return replay(new RecordVisitor() {
+            @Override
+            public void visit(long sequence, long entityId, int fromOrdinal, int eventOrdinal, int toOrdinal,
+                              long timestamp) throws IOException {
+                registry.register(entityId, definition.getState(checkTarget(sequence, toOrdinal)));
+            }
+        });
+    }
+
+    /**
+     * Restores a column of state ordinals indexed by entity id to the target state of the last record of each
+     * entity. Guards and listeners are not involved, the journal holding the states the entities reached.
+     *
+     * @return the number of records read
+     */
+    public long replay(final int[] stateOrdinals) throws IOException {
+        return replay(new RecordVisitor() {
+            @Override
+            public void visit(long sequence, long entityId, int fromOrdinal, int eventOrdinal, int toOrdinal,
+                              long timestamp) throws IOException {
+                if (entityId < 0 || entityId >= stateOrdinals.length)
+                    throw new IOException("Entity " + entityId + " of record " + sequence + " is outside of the column");
+                stateOrdinals[(int) entityId] = checkTarget(sequence, toOrdinal);
+            }
+        });
+    }
+
+    private int checkTarget(long sequence, int toOrdinal) throws IOException {
+        if (toOrdinal < 0 || toOrdinal >= definition.getStateCount())
+            throw new IOException("Record " + sequence + " has an invalid target state " + toOrdinal);
+        return toOrdinal;
+    }
+
+    public interface RecordVisitor {
+        void visit(long sequence, long entityId, int fromOrdinal, int eventOrdinal, int toOrdinal,
+                   long timestamp) throws IOException;
+    }
+}
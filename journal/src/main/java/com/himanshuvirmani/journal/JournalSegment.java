@@ -0,0 +1,167 @@
+package com.himanshuvirmani.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * One memory mapped file of a journal. A segment starts with a fixed header followed by fixed width records:
+ * <pre>
+ * entityId:long timestamp:long from:u16 event:u16 to:u16 marker:u16
+ * </pre>
+ * The marker is written last, so a record torn by a crash is recognized and ends the segment.
+ */
+final class JournalSegment {
+
+    static final int MAGIC = 0x534d4a31;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int RECORD_SIZE = 24;
+
+    static final int NO_STATE = 0xFFFF;
+
+    private static final short MARKER = 0x4a52;
+
+    private static final String SUFFIX = ".journal";
+
+    private static final Pattern NAME = Pattern.compile("\\d{20}\\" + SUFFIX);
+
+    private final File file;
+
+    private final MappedByteBuffer buffer;
+
+    private final long firstSequence;
+
+    private final int capacity;
+
+    private int count;
+
+    private JournalSegment(File file, MappedByteBuffer buffer, long firstSequence) {
+        this.file = file;
+        this.buffer = buffer;
+        this.firstSequence = firstSequence;
+        this.capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /**
+     * Creates and maps a new segment whose first record will have the given sequence.
+     */
+    static JournalSegment create(File directory, long firstSequence, long fingerprint, int stateCount,
+                                 long size) throws IOException {
+        final File file = new File(directory, String.format("%020d", firstSequence) + SUFFIX);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(stateCount)
+                    .putLong(fingerprint).putLong(firstSequence);
+            return new JournalSegment(file, buffer, firstSequence);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps an existing segment after checking it was written for a definition with the given fingerprint,
+     * and counts its complete records.
+     */
+    static JournalSegment open(File file, long fingerprint, boolean writable) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            final MappedByteBuffer buffer = raf.getChannel().map(
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException(file + " is not a journal segment");
+            if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE)
+                throw new IOException("Unsupported journal segment " + file);
+            if (buffer.getLong(16) != fingerprint)
+                throw new IOException(file + " was written with a different state machine definition");
+
+            final JournalSegment segment = new JournalSegment(file, buffer, buffer.getLong(24));
+            while (segment.count < segment.capacity && buffer.getShort(segment.offset(segment.count) + 22) == MARKER) {
+                segment.count++;
+            }
+            return segment;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the segment files of the directory in sequence order
+     */
+    static File[] list(File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null) return new File[0];
+        int size = 0;
+        for (File file : files) {
+            if (NAME.matcher(file.getName()).matches()) files[size++] = file;
+        }
+        final File[] segments = Arrays.copyOf(files, size);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+
+    void append(long entityId, int from, int event, int to, long timestamp) {
+        final int offset = offset(count);
+        buffer.putLong(offset, entityId);
+        buffer.putLong(offset + 8, timestamp);
+        buffer.putShort(offset + 16, (short) (from < 0 ? NO_STATE : from));
+        buffer.putShort(offset + 18, (short) event);
+        buffer.putShort(offset + 20, (short) to);
+        buffer.putShort(offset + 22, MARKER);
+        count++;
+    }
+
+    long entityId(int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    long timestamp(int index) {
+        return buffer.getLong(offset(index) + 8);
+    }
+
+    int from(int index) {
+        final int from = buffer.getShort(offset(index) + 16) & 0xFFFF;
+        return from == NO_STATE ? -1 : from;
+    }
+
+    int event(int index) {
+        return buffer.getShort(offset(index) + 18) & 0xFFFF;
+    }
+
+    int to(int index) {
+        return buffer.getShort(offset(index) + 20) & 0xFFFF;
+    }
+
+    private int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    int getCount() {
+        return count;
+    }
+}
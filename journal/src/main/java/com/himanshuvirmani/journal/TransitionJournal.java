@@ -0,0 +1,208 @@
+package com.himanshuvirmani.journal;
+
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.StateMachineRegistry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append only journal of the transitions of entities driven by one {@link StateMachineDefinition}. Each
+ * transition is stored as a fixed width record of the entity id, the from, event and to ordinals and a
+ * timestamp, in memory mapped segment files rolled over when full.
+ * <p>
+ * Appending only writes to memory. Records become durable once {@link #sync(long)} returns; concurrent callers
+ * of {@code sync} share a single flush of the mapped segment, so the cost of a flush is paid once per group of
+ * records rather than once per record. Read the journal back with {@link JournalReader}.
+ */
+public final class TransitionJournal<T, E> implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private final File directory;
+
+    private final StateMachineDefinition<T, E> definition;
+
+    private final long fingerprint;
+
+    private final long segmentSize;
+
+    private final Object syncLock = new Object();
+
+    private JournalSegment segment;
+
+    /**
+     * Segments rolled over since the last sync, forced by the next one.
+     */
+    private List<JournalSegment> rolled = new ArrayList<JournalSegment>();
+
+    private long next;
+
+    private boolean closed;
+
+    private volatile long durable;
+
+    public TransitionJournal(File directory, StateMachineDefinition<T, E> definition) throws IOException {
+        this(directory, definition, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in the directory, appending after the records already there.
+     *
+     * @param segmentSize size in bytes of each segment file, at most 2GB
+     */
+    public TransitionJournal(File directory, StateMachineDefinition<T, E> definition, long segmentSize) throws IOException {
+        if (!definition.hasTable() || definition.getStateCount() >= JournalSegment.NO_STATE
+                || definition.getEventCount() > JournalSegment.NO_STATE)
+            throw new IllegalArgumentException("Journal needs a definition with fewer than 65535 states and events");
+        if (segmentSize < JournalSegment.HEADER_SIZE + JournalSegment.RECORD_SIZE || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create journal directory " + directory);
+
+        this.directory = directory;
+        this.definition = definition;
+        this.fingerprint = definition.getFingerprint();
+        this.segmentSize = segmentSize;
+
+        final File[] segments = JournalSegment.list(directory);
+        if (segments.length == 0) {
+            segment = JournalSegment.create(directory, 0, fingerprint, definition.getStateCount(), segmentSize);
+        } else {
+            segment = JournalSegment.open(segments[segments.length - 1], fingerprint, true);
+        }
+        next = segment.getFirstSequence() + segment.getCount();
+        durable = next;
+    }
+
+    /**
+     * Appends a transition stamped with the current time.
+     *
+     * @return the sequence number of the record
+     */
+    public long append(long entityId, T from, E on, T to) throws IOException {
+        return append(entityId, from == null ? -1 : definition.ordinalOfState(from), definition.ordinalOfEvent(on),
+                definition.ordinalOfState(to), System.currentTimeMillis());
+    }
+
+    /**
+     * Appends a transition given by ordinals, a negative {@code fromOrdinal} standing for no state.
+     *
+     * @return the sequence number of the record
+     */
+    public synchronized long append(long entityId, int fromOrdinal, int eventOrdinal, int toOrdinal,
+                                    long timestamp) throws IOException {
+        if (closed) throw new IOException("Journal is closed");
+        if (segment.isFull()) roll();
+        segment.append(entityId, fromOrdinal, eventOrdinal, toOrdinal, timestamp);
+        return next++;
+    }
+
+    /**
+     * Starts a new segment, leaving the full one to be forced by the next sync rather than under the append lock.
+     */
+    private void roll() throws IOException {
+        final JournalSegment full = segment;
+        segment = JournalSegment.create(directory, next, fingerprint, definition.getStateCount(), segmentSize);
+        rolled.add(full);
+    }
+
+    /**
+     * Blocks until the record with the given sequence number, and all before it, are written to disk.
+     * A caller finding a flush in progress waits for it and returns without another one when it covered
+     * its record.
+     */
+    public void sync(long sequence) throws IOException {
+        if (sequence < durable) return;
+        synchronized (syncLock) {
+            if (sequence < durable) return;
+            final JournalSegment current;
+            final List<JournalSegment> full;
+            final long upTo;
+            synchronized (this) {
+                current = segment;
+                upTo = next;
+                full = rolled;
+                if (!full.isEmpty()) rolled = new ArrayList<JournalSegment>();
+            }
+            try {
+                for (int i = 0; i < full.size(); i++) {
+                    full.get(i).force();
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    rolled.addAll(0, full);
+                }
+                throw e;
+            }
+            current.force();
+            durable = upTo;
+        }
+    }
+
+    /**
+     * Writes all appended records to disk.
+     */
+    public void sync() throws IOException {
+        final long last;
+        synchronized (this) {
+            last = next - 1;
+        }
+        sync(last);
+    }
+
+    /**
+     * @return the sequence number the next record will get, which is also the number of records in the journal
+     */
+    public synchronized long getNextSequence() {
+        return next;
+    }
+
+    /**
+     * @return a listener journaling the transitions of a registry keyed by long ids
+     */
+    public StateMachineRegistry.EntityStateChangeListener<Long, T, E> registryListener() {
+        return new StateMachineRegistry.EntityStateChangeListener<Long, T, E>() {
+            @Override
+            public void onStateChanged(Long id, T from, T to, E on) {
+                appendFromListener(id, from, on, to);
+            }
+        };
+    }
+
+    /**
+     * @return a listener journaling the transitions of a single machine under the given entity id
+     */
+    public StateMachine.StateChangeListener<T, E> listenerFor(final long entityId) {
+        return new StateMachine.StateChangeListener<T, E>() {
+            @Override
+            public void onStateChanged(T from, T to, E on) {
+                appendFromListener(entityId, from, on, to);
+            }
+        };
+    }
+
+    private void appendFromListener(long entityId, T from, E on, T to) {
+        try {
+            append(entityId, from, on, to);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot journal transition of " + entityId, e);
+        }
+    }
+
+    /**
+     * Writes all appended records to disk and refuses further ones.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        sync();
+    }
+}
@@ -0,0 +1,111 @@
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.StateMachineRegistry;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import com.himanshuvirmani.exceptions.TransitionException;
+import com.himanshuvirmani.journal.JournalReader;
+import com.himanshuvirmani.journal.TransitionJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TransitionJournalTest {
+
+    enum OrderState {CREATED, ONHOLD, DELIVERED}
+
+    enum OrderEvent {HOLD, DELIVER}
+
+    File directory;
+
+    StateMachineDefinition<OrderState, OrderEvent> definition;
+
+    @Before
+    public void init() throws TransitionCreationException, IOException {
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+        StateMachine<OrderState, OrderEvent> stateMachine = new StateMachine<OrderState, OrderEvent>();
+        stateMachine.transition().from(OrderState.CREATED).to(OrderState.ONHOLD).on(OrderEvent.HOLD).create();
+        stateMachine.transition().from(OrderState.ONHOLD).to(OrderState.DELIVERED).on(OrderEvent.DELIVER).create();
+        definition = stateMachine.compile();
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testRegistryReplayAcrossSegments() throws TransitionException, IOException {
+        StateMachineRegistry<Long, OrderState, OrderEvent> registry =
+                new StateMachineRegistry<Long, OrderState, OrderEvent>(definition);
+        TransitionJournal<OrderState, OrderEvent> journal =
+                new TransitionJournal<OrderState, OrderEvent>(directory, definition, 4096);
+        registry.setStateChangeListener(journal.registryListener());
+
+        for (long id = 0; id < 1000; id++) {
+            registry.register(id, OrderState.CREATED);
+            registry.fire(id, OrderEvent.HOLD);
+            if (id % 2 == 0) registry.fire(id, OrderEvent.DELIVER);
+        }
+        journal.close();
+        assertEquals(1500, journal.getNextSequence());
+
+        StateMachineRegistry<Long, OrderState, OrderEvent> restored =
+                new StateMachineRegistry<Long, OrderState, OrderEvent>(definition);
+        assertEquals(1500, new JournalReader<OrderState, OrderEvent>(directory, definition).replay(restored));
+        assertEquals(1000, restored.size());
+        assertEquals(OrderState.DELIVERED, restored.getState(998L));
+        assertEquals(OrderState.ONHOLD, restored.getState(999L));
+    }
+
+    @Test
+    public void testColumnReplayAfterReopen() throws IOException {
+        TransitionJournal<OrderState, OrderEvent> journal =
+                new TransitionJournal<OrderState, OrderEvent>(directory, definition, 4096);
+        journal.append(0, OrderState.CREATED, OrderEvent.HOLD, OrderState.ONHOLD);
+        journal.append(1, OrderState.CREATED, OrderEvent.HOLD, OrderState.ONHOLD);
+        journal.sync();
+        journal.close();
+
+        journal = new TransitionJournal<OrderState, OrderEvent>(directory, definition, 4096);
+        assertEquals(2, journal.getNextSequence());
+        journal.append(0, OrderState.ONHOLD, OrderEvent.DELIVER, OrderState.DELIVERED);
+        journal.close();
+
+        int[] states = new int[3];
+        assertEquals(3, new JournalReader<OrderState, OrderEvent>(directory, definition).replay(states));
+        assertArrayEquals(new int[]{2, 1, 0}, states);
+    }
+
+    @Test
+    public void testColumnReplayRestoresRecordedTargets() throws IOException {
+        TransitionJournal<OrderState, OrderEvent> journal =
+                new TransitionJournal<OrderState, OrderEvent>(directory, definition, 4096);
+        // taken on a guard or a wildcard the definition does not reproduce from the ordinals alone
+        journal.append(0, OrderState.CREATED, OrderEvent.DELIVER, OrderState.DELIVERED);
+        journal.append(1, OrderState.ONHOLD, OrderEvent.HOLD, OrderState.CREATED);
+        journal.close();
+
+        int[] states = new int[2];
+        assertEquals(2, new JournalReader<OrderState, OrderEvent>(directory, definition).replay(states));
+        assertArrayEquals(new int[]{2, 0}, states);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDefinitionMismatch() throws Exception {
+        new TransitionJournal<OrderState, OrderEvent>(directory, definition).close();
+
+        StateMachine<OrderState, OrderEvent> other = new StateMachine<OrderState, OrderEvent>();
+        other.transition().from(OrderState.CREATED).to(OrderState.DELIVERED).on(OrderEvent.DELIVER).create();
+        new JournalReader<OrderState, OrderEvent>(directory, other.compile()).replay(new int[1]);
+    }
+}
@@ -0,0 +1,170 @@
+package com.himanshuvirmani.reactive;
+
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineRegistry;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Fires the events of a publisher on a state machine or on the entities of a registry, with bounded demand.
+ * At most {@code batchSize} events are requested at a time, and more are only requested once half of them were
+ * handled, so that the cost of {@code request(n)} is shared by many events. Rejected events are dropped; they
+ * are still seen by the tracer and metrics of the machine.
+ * <p>
+ * When created with a {@link TransitionPublisher} demand is also bounded by the room left in its buffer, so the
+ * events in flight never produce more transitions than its subscriber can take. Completion and errors of the
+ * events are passed on to the transitions.
+ * <p>
+ * On JDK 9 and later {@code org.reactivestreams.FlowAdapters} subscribes it to a
+ * {@code java.util.concurrent.Flow.Publisher}.
+ */
+public final class EventSubscriber<X> implements Subscriber<X> {
+
+    private final Sink<X> sink;
+
+    private final int batchSize;
+
+    private final TransitionPublisher<?, ?, ?> transitions;
+
+    private Subscription subscription;
+
+    /**
+     * Events requested but not yet received.
+     */
+    private long outstanding;
+
+    private boolean done;
+
+    /**
+     * Whether an event is being handled, during which more demand is left to {@link #onNext} to signal.
+     */
+    private volatile boolean accepting;
+
+    /**
+     * @param transitions publisher of the resulting transitions bounding demand, or null
+     */
+    public EventSubscriber(Sink<X> sink, int batchSize, TransitionPublisher<?, ?, ?> transitions) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size should be positive");
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.transitions = transitions;
+        if (transitions != null) {
+            transitions.setDemandListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (!accepting) replenish();
+                }
+            });
+        }
+    }
+
+    public static <T, E> EventSubscriber<E> of(StateMachine<T, E> machine, int batchSize) {
+        return of(machine, batchSize, null);
+    }
+
+    public static <T, E> EventSubscriber<E> of(final StateMachine<T, E> machine, int batchSize,
+                                               TransitionPublisher<?, T, E> transitions) {
+        return new EventSubscriber<E>(new Sink<E>() {
+            @Override
+            public void accept(E event) {
+                machine.tryFire(event);
+            }
+        }, batchSize, transitions);
+    }
+
+    public static <X, K, T, E> EventSubscriber<X> of(StateMachineRegistry<K, T, E> registry,
+                                                     EntityEvents<X, K, E> events, int batchSize) {
+        return of(registry, events, batchSize, null);
+    }
+
+    public static <X, K, T, E> EventSubscriber<X> of(final StateMachineRegistry<K, T, E> registry,
+                                                     final EntityEvents<X, K, E> events, int batchSize,
+                                                     TransitionPublisher<K, T, E> transitions) {
+        return new EventSubscriber<X>(new Sink<X>() {
+            @Override
+            public void accept(X item) {
+                registry.tryFire(events.idOf(item), events.eventOf(item));
+            }
+        }, batchSize, transitions);
+    }
+
+    @Override
+    public synchronized void onSubscribe(Subscription s) {
+        if (s == null) throw new NullPointerException("Subscription cannot be null");
+        if (subscription != null) {
+            s.cancel();
+            return;
+        }
+        subscription = s;
+        replenish();
+    }
+
+    @Override
+    public void onNext(X item) {
+        if (item == null) throw new NullPointerException("Event cannot be null");
+        accepting = true;
+        try {
+            sink.accept(item);
+        } finally {
+            accepting = false;
+        }
+        synchronized (this) {
+            outstanding--;
+        }
+        replenish();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            done = true;
+        }
+        if (transitions != null) transitions.fail(t);
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            done = true;
+        }
+        if (transitions != null) transitions.complete();
+    }
+
+    /**
+     * Stops receiving events.
+     */
+    public synchronized void cancel() {
+        done = true;
+        if (subscription != null) subscription.cancel();
+    }
+
+    /**
+     * Requests events up to the batch size, and the room left for transitions, once half of the previous
+     * request was received. Synchronized as calls on the subscription must not overlap.
+     */
+    private synchronized void replenish() {
+        if (subscription == null || done || outstanding > batchSize / 2) return;
+        final long limit = transitions == null ? batchSize : Math.min(batchSize, transitions.free());
+        final long n = limit - outstanding;
+        if (n <= 0) return;
+        outstanding += n;
+        subscription.request(n);
+    }
+
+    /**
+     * Handles an event received from the publisher.
+     */
+    public interface Sink<X> {
+        void accept(X item);
+    }
+
+    /**
+     * Extracts the entity and its event from the items of a publisher feeding a registry.
+     */
+    public interface EntityEvents<X, K, E> {
+        K idOf(X item);
+
+        E eventOf(X item);
+    }
+}
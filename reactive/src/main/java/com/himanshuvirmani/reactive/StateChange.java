@@ -0,0 +1,33 @@
+package com.himanshuvirmani.reactive;
+
+import lombok.Getter;
+
+/**
+ * Transition published by a {@link TransitionPublisher}.
+ */
+@Getter
+public final class StateChange<K, T, E> {
+
+    /**
+     * Entity which transitioned, null for a single state machine.
+     */
+    private final K id;
+
+    private final T from;
+
+    private final T to;
+
+    private final E on;
+
+    public StateChange(K id, T from, T to, E on) {
+        this.id = id;
+        this.from = from;
+        this.to = to;
+        this.on = on;
+    }
+
+    @Override
+    public String toString() {
+        return (id == null ? "" : id + ": ") + from + " -> " + to + " on " + on;
+    }
+}
@@ -0,0 +1,218 @@
+package com.himanshuvirmani.reactive;
+
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineRegistry;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the transitions of a state machine or of the entities of a registry to a single subscriber, in place
+ * of a state change listener. Transitions are buffered until the subscriber requests them; once {@code capacity}
+ * transitions are buffered the subscriber is failed with an {@link IllegalStateException}. Feeding the machine
+ * with an {@link EventSubscriber} created for this publisher keeps the buffer from overflowing, as events are
+ * then only requested while there is room for their transitions.
+ * <p>
+ * On JDK 9 and later {@code org.reactivestreams.FlowAdapters} turns it into a
+ * {@code java.util.concurrent.Flow.Publisher}.
+ */
+public final class TransitionPublisher<K, T, E> implements Publisher<StateChange<K, T, E>> {
+
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<StateChange<K, T, E>> buffer = new ConcurrentLinkedQueue<StateChange<K, T, E>>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicReference<Subscriber<? super StateChange<K, T, E>>> subscriber =
+            new AtomicReference<Subscriber<? super StateChange<K, T, E>>>();
+
+    private final AtomicLong requested = new AtomicLong();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean done;
+
+    private volatile Throwable error;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Only accessed by the thread draining the buffer.
+     */
+    private boolean terminated;
+
+    private volatile Runnable demandListener;
+
+    public TransitionPublisher(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity should be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Publishes the transitions of the machine, listening to it with
+     * {@link StateMachine#addStateChangeListener(StateMachine.StateChangeListener)}.
+     */
+    public static <T, E> TransitionPublisher<Void, T, E> of(StateMachine<T, E> machine, int capacity) {
+        final TransitionPublisher<Void, T, E> publisher = new TransitionPublisher<Void, T, E>(capacity);
+        machine.addStateChangeListener(new StateMachine.StateChangeListener<T, E>() {
+            @Override
+            public void onStateChanged(T from, T to, E on) {
+                publisher.publish(null, from, to, on);
+            }
+        });
+        return publisher;
+    }
+
+    /**
+     * Publishes the transitions of the entities of the registry, replacing its state change listener.
+     */
+    public static <K, T, E> TransitionPublisher<K, T, E> of(StateMachineRegistry<K, T, E> registry, int capacity) {
+        final TransitionPublisher<K, T, E> publisher = new TransitionPublisher<K, T, E>(capacity);
+        registry.setStateChangeListener(new StateMachineRegistry.EntityStateChangeListener<K, T, E>() {
+            @Override
+            public void onStateChanged(K id, T from, T to, E on) {
+                publisher.publish(id, from, to, on);
+            }
+        });
+        return publisher;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super StateChange<K, T, E>> s) {
+        if (s == null) throw new NullPointerException("Subscriber cannot be null");
+        if (!subscriber.compareAndSet(null, s)) {
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("Transition publisher allows a single subscriber"));
+            return;
+        }
+        s.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("Requested " + n + " transitions, should be positive"));
+                    return;
+                }
+                long current;
+                do {
+                    current = requested.get();
+                    if (current == Long.MAX_VALUE) break;
+                } while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+                drain();
+                final Runnable listener = demandListener;
+                if (listener != null) listener.run();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                drain();
+            }
+        });
+        drain();
+    }
+
+    /**
+     * Buffers a transition for the subscriber, failing it when the buffer is full.
+     */
+    public void publish(K id, T from, T to, E on) {
+        if (done || cancelled) return;
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            fail(new IllegalStateException("Transition buffer of " + capacity + " is full, subscriber is too slow"));
+            return;
+        }
+        buffer.offer(new StateChange<K, T, E>(id, from, to, on));
+        drain();
+    }
+
+    /**
+     * Completes the subscriber once the buffered transitions were delivered.
+     */
+    public void complete() {
+        done = true;
+        drain();
+    }
+
+    /**
+     * Fails the subscriber right away, dropping the buffered transitions.
+     */
+    public void fail(Throwable cause) {
+        if (error == null) error = cause;
+        done = true;
+        drain();
+    }
+
+    /**
+     * @return how many more transitions can be buffered
+     */
+    int free() {
+        return capacity - size.get();
+    }
+
+    /**
+     * @param listener run whenever the subscriber requested transitions, after those buffered were delivered.
+     *                 Never run from {@link #publish}, which is called by the state change listener of the machine
+     *                 while it is handling an event.
+     */
+    void setDemandListener(Runnable listener) {
+        demandListener = listener;
+    }
+
+    /**
+     * Delivers as many buffered transitions as requested, on whichever thread gets here first; others only
+     * note that another pass is needed.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+        int missed = 1;
+        do {
+            final Subscriber<? super StateChange<K, T, E>> s = subscriber.get();
+            if (s != null && !terminated) {
+                if (cancelled) {
+                    terminated = true;
+                    clear();
+                } else if (error != null) {
+                    terminated = true;
+                    clear();
+                    s.onError(error);
+                } else {
+                    final long r = requested.get();
+                    long emitted = 0;
+                    while (emitted != r) {
+                        final StateChange<K, T, E> change = buffer.poll();
+                        if (change == null) break;
+                        size.decrementAndGet();
+                        s.onNext(change);
+                        emitted++;
+                    }
+                    if (emitted > 0 && r != Long.MAX_VALUE) requested.addAndGet(-emitted);
+                    if (done && buffer.isEmpty()) {
+                        terminated = true;
+                        s.onComplete();
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void clear() {
+        buffer.clear();
+        size.set(0);
+    }
+}
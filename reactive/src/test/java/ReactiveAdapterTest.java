@@ -0,0 +1,227 @@
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineRegistry;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import com.himanshuvirmani.reactive.EventSubscriber;
+import com.himanshuvirmani.reactive.StateChange;
+import com.himanshuvirmani.reactive.TransitionPublisher;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReactiveAdapterTest {
+
+    enum State {OPEN, CLOSED}
+
+    enum Event {OPEN, CLOSE}
+
+    StateMachine<State, Event> stateMachine;
+
+    @Before
+    public void init() throws TransitionCreationException {
+        stateMachine = new StateMachine<State, Event>(State.OPEN);
+        stateMachine.transition().from(State.OPEN).to(State.CLOSED).on(Event.CLOSE).create();
+        stateMachine.transition().from(State.CLOSED).to(State.OPEN).on(Event.OPEN).create();
+    }
+
+    @Test
+    public void testEventsRequestedInBatches() {
+        final ListPublisher<Event> events = new ListPublisher<Event>(alternating(100));
+        events.subscribe(EventSubscriber.of(stateMachine, 16));
+
+        assertEquals(100, events.emitted);
+        assertTrue(events.requests.size() < 100 / 8 + 2);
+        assertEquals(State.OPEN, stateMachine.getCurrentState());
+    }
+
+    @Test
+    public void testTransitionsFollowDownstreamDemand() {
+        final TransitionPublisher<Void, State, Event> transitions = TransitionPublisher.of(stateMachine, 4);
+        final RecordingSubscriber<StateChange<Void, State, Event>> subscriber = new RecordingSubscriber<StateChange<Void, State, Event>>();
+        transitions.subscribe(subscriber);
+
+        final ListPublisher<Event> events = new ListPublisher<Event>(alternating(10));
+        events.subscribe(EventSubscriber.of(stateMachine, 16, transitions));
+        assertEquals(4, events.emitted);
+        assertEquals(0, subscriber.received.size());
+
+        subscriber.subscription.request(3);
+        assertEquals(3, subscriber.received.size());
+        assertEquals(7, events.emitted);
+
+        subscriber.subscription.request(100);
+        assertEquals(10, subscriber.received.size());
+        assertTrue(subscriber.completed);
+        assertEquals("OPEN -> CLOSED on CLOSE", subscriber.received.get(0).toString());
+    }
+
+    @Test
+    public void testRegistryEvents() throws TransitionCreationException {
+        final StateMachineRegistry<Long, State, Event> registry = new StateMachineRegistry<Long, State, Event>(stateMachine.compile());
+        registry.register(1L, State.OPEN);
+        registry.register(2L, State.CLOSED);
+        final TransitionPublisher<Long, State, Event> transitions = TransitionPublisher.of(registry, 8);
+        final RecordingSubscriber<StateChange<Long, State, Event>> subscriber = new RecordingSubscriber<StateChange<Long, State, Event>>();
+        transitions.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        final ListPublisher<Long> ids = new ListPublisher<Long>(Arrays.asList(1L, 2L, 1L));
+        ids.subscribe(EventSubscriber.of(registry, new EventSubscriber.EntityEvents<Long, Long, Event>() {
+            @Override
+            public Long idOf(Long item) {
+                return item;
+            }
+
+            @Override
+            public Event eventOf(Long item) {
+                return Event.CLOSE;
+            }
+        }, 8, transitions));
+
+        assertEquals(1, subscriber.received.size());
+        assertEquals(Long.valueOf(1L), subscriber.received.get(0).getId());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testEventsNotFiredFromTransitionListener() {
+        final TransitionPublisher<Void, State, Event> transitions = TransitionPublisher.of(stateMachine, 4);
+        final RecordingSubscriber<StateChange<Void, State, Event>> subscriber = new RecordingSubscriber<StateChange<Void, State, Event>>();
+        transitions.subscribe(subscriber);
+
+        final int[] depth = new int[2];
+        stateMachine.addStateChangeListener(new StateMachine.StateChangeListener<State, Event>() {
+            @Override
+            public void onStateChanged(State from, State to, Event on) {
+                depth[1] = Math.max(depth[1], ++depth[0]);
+            }
+        });
+        stateMachine.addStateChangeListener(new StateMachine.StateChangeListener<State, Event>() {
+            @Override
+            public void onStateChanged(State from, State to, Event on) {
+                depth[0]--;
+            }
+        });
+
+        final ListPublisher<Event> events = new ListPublisher<Event>(alternating(20));
+        events.recursive = true;
+        events.subscribe(EventSubscriber.of(stateMachine, 2, transitions));
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(20, subscriber.received.size());
+        assertEquals(1, depth[1]);
+    }
+
+    @Test
+    public void testOverflowFailsSubscriber() {
+        final TransitionPublisher<Void, State, Event> transitions = TransitionPublisher.of(stateMachine, 2);
+        final RecordingSubscriber<StateChange<Void, State, Event>> subscriber = new RecordingSubscriber<StateChange<Void, State, Event>>();
+        transitions.subscribe(subscriber);
+
+        stateMachine.tryFire(Event.CLOSE);
+        stateMachine.tryFire(Event.OPEN);
+        stateMachine.tryFire(Event.CLOSE);
+
+        assertTrue(subscriber.error instanceof IllegalStateException);
+    }
+
+    private static List<Event> alternating(int count) {
+        final List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) events.add(i % 2 == 0 ? Event.CLOSE : Event.OPEN);
+        return events;
+    }
+
+    /**
+     * Synchronous publisher of a list, emitting on the requesting thread.
+     */
+    static class ListPublisher<X> implements Publisher<X> {
+
+        final List<X> items;
+
+        final List<Long> requests = new ArrayList<Long>();
+
+        int emitted;
+
+        boolean emitting;
+
+        /**
+         * Emits on every request, even one made from within onNext, instead of looping in the outer request.
+         */
+        boolean recursive;
+
+        boolean completed;
+
+        long demand;
+
+        ListPublisher(List<X> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super X> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    requests.add(n);
+                    demand += n;
+                    if (emitting && !recursive) return;
+                    final boolean outer = !emitting;
+                    emitting = true;
+                    while (demand > 0 && emitted < items.size()) {
+                        demand--;
+                        subscriber.onNext(items.get(emitted++));
+                    }
+                    if (!outer) return;
+                    emitting = false;
+                    if (emitted == items.size() && !completed) {
+                        completed = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    static class RecordingSubscriber<X> implements Subscriber<X> {
+
+        final List<X> received = new ArrayList<X>();
+
+        Subscription subscription;
+
+        Throwable error;
+
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(X x) {
+            received.add(x);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.himanshuvirmani.benchmark;
+
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and compiling a large graph through the {@code transitions()} builder, each state moving to the
+ * next one on every event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BuildBenchmark {
+
+    @Param({"100", "1000"})
+    int states;
+
+    @Param({"1", "10"})
+    int events;
+
+    Integer[] from;
+
+    Integer[] to;
+
+    @Setup
+    public void setup() {
+        from = new Integer[states];
+        to = new Integer[states];
+        for (int i = 0; i < states; i++) {
+            from[i] = i;
+            to[i] = (i + 1) % states;
+        }
+    }
+
+    @Benchmark
+    public StateMachineDefinition<Integer, Integer> build() throws TransitionCreationException {
+        final StateMachine<Integer, Integer> stateMachine = new StateMachine<Integer, Integer>(0);
+        for (int event = 0; event < events; event++) {
+            stateMachine.transitions().fromAny(from).toAmong(to).onEach(event).create();
+        }
+        return stateMachine.compile();
+    }
+}
@@ -0,0 +1,95 @@
+package com.himanshuvirmani.benchmark;
+
+import com.himanshuvirmani.ConcurrentStateMachine;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.StateMachineRegistry;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several threads firing events: on one machine guarded by a lock, on one lock free machine, and on the
+ * entities of a registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(2)
+public class ConcurrentFireBenchmark {
+
+    private static final int ENTITIES = 1 << 14;
+
+    StateMachine<OrderState, OrderEvent> locked;
+
+    ConcurrentStateMachine<OrderState, OrderEvent> lockFree;
+
+    StateMachineRegistry<Integer, OrderState, OrderEvent> registry;
+
+    Integer[] ids;
+
+    @Setup
+    public void setup() throws TransitionCreationException {
+        locked = Orders.machine();
+        final StateMachineDefinition<OrderState, OrderEvent> definition = locked.compile();
+        lockFree = new ConcurrentStateMachine<OrderState, OrderEvent>(definition, OrderState.CREATED);
+        registry = new StateMachineRegistry<Integer, OrderState, OrderEvent>(definition);
+        ids = new Integer[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++) {
+            ids[i] = i;
+            registry.register(ids[i], OrderState.CREATED);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+
+        int entity;
+
+        OrderEvent nextEvent() {
+            final OrderEvent event = Orders.CYCLE[next];
+            next = next == Orders.CYCLE.length - 1 ? 0 : next + 1;
+            return event;
+        }
+
+        int nextEntity() {
+            entity = (entity + 0x9E3779B9) & (ENTITIES - 1);
+            return entity;
+        }
+    }
+
+    @Benchmark
+    public TransitionResult locked(Cursor cursor) {
+        final OrderEvent event = cursor.nextEvent();
+        synchronized (locked) {
+            return locked.tryFire(event);
+        }
+    }
+
+    @Benchmark
+    public TransitionResult lockFree(Cursor cursor) {
+        return lockFree.tryFire(cursor.nextEvent());
+    }
+
+    @Benchmark
+    public TransitionResult registry(Cursor cursor) {
+        return registry.tryFire(ids[cursor.nextEntity()], cursor.nextEvent());
+    }
+}
@@ -0,0 +1,101 @@
+package com.himanshuvirmani.benchmark;
+
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import com.himanshuvirmani.exceptions.TransitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded cost of firing an event: accepted, rejected with and without an exception, guarded, and
+ * with a listener to dispatch to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FireBenchmark {
+
+    @Param({"true", "false"})
+    boolean compiled;
+
+    StateMachine<OrderState, OrderEvent> stateMachine;
+
+    StateMachine<OrderState, OrderEvent> guarded;
+
+    StateMachine<OrderState, OrderEvent> listened;
+
+    int next;
+
+    @Setup
+    public void setup() throws TransitionCreationException {
+        stateMachine = Orders.machine();
+        guarded = Orders.guardedMachine();
+        listened = Orders.machine();
+        listened.addStateChangeListener(new StateMachine.StateChangeListener<OrderState, OrderEvent>() {
+            @Override
+            public void onStateChanged(OrderState from, OrderState to, OrderEvent on) {
+            }
+        });
+        if (compiled) {
+            stateMachine.compile();
+            guarded.compile();
+            listened.compile();
+        }
+    }
+
+    private OrderEvent nextEvent() {
+        final OrderEvent event = Orders.CYCLE[next];
+        next = next == Orders.CYCLE.length - 1 ? 0 : next + 1;
+        return event;
+    }
+
+    @Benchmark
+    public void fire() throws TransitionException {
+        stateMachine.fire(nextEvent());
+    }
+
+    @Benchmark
+    public TransitionResult tryFire() {
+        return stateMachine.tryFire(nextEvent());
+    }
+
+    @Benchmark
+    public TransitionResult tryFireRejected() {
+        return stateMachine.tryFire(OrderEvent.CANCEL);
+    }
+
+    @Benchmark
+    public void fireRejected(Blackhole blackhole) {
+        try {
+            stateMachine.fire(OrderEvent.CANCEL);
+        } catch (TransitionException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public TransitionResult guarded() {
+        return guarded.tryFire(nextEvent(), 42);
+    }
+
+    @Benchmark
+    public TransitionResult listened() {
+        return listened.tryFire(nextEvent());
+    }
+}
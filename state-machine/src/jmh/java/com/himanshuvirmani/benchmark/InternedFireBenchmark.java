@@ -0,0 +1,72 @@
+package com.himanshuvirmani.benchmark;
+
+import com.himanshuvirmani.IntStateMachine;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Firing on the order graph with string states and events, as read from configuration: through the interned
+ * table by value, and by code with an {@link IntStateMachine}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InternedFireBenchmark {
+
+    static final String[] CYCLE = {"hold", "deliver", "reopen"};
+
+    StateMachine<String, String> stateMachine;
+
+    IntStateMachine<String, String> intStateMachine;
+
+    int[] cycleCodes;
+
+    int next;
+
+    @Setup
+    public void setup() throws TransitionCreationException {
+        stateMachine = new StateMachine<String, String>("created");
+        stateMachine.transition().from("created").to("onhold").on("hold").create();
+        stateMachine.transition().from("onhold").to("delivered").on("deliver").create();
+        stateMachine.transition().from("delivered").to("created").on("reopen").create();
+        stateMachine.transition().from("onhold").to("cancelled").on("cancel").create();
+        final StateMachineDefinition<String, String> definition = stateMachine.compile();
+
+        intStateMachine = new IntStateMachine<String, String>(definition, "created");
+        cycleCodes = new int[CYCLE.length];
+        for (int i = 0; i < CYCLE.length; i++) cycleCodes[i] = definition.ordinalOfEvent(CYCLE[i]);
+    }
+
+    private int advance() {
+        final int current = next;
+        next = next == CYCLE.length - 1 ? 0 : next + 1;
+        return current;
+    }
+
+    @Benchmark
+    public TransitionResult tryFire() {
+        return stateMachine.tryFire(CYCLE[advance()]);
+    }
+
+    @Benchmark
+    public int fireCode() {
+        return intStateMachine.fire(cycleCodes[advance()]);
+    }
+}
@@ -0,0 +1,5 @@
+package com.himanshuvirmani.benchmark;
+
+public enum OrderEvent {
+    HOLD, DELIVER, REOPEN, CANCEL
+}
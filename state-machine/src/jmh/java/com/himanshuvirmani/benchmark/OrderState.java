@@ -0,0 +1,5 @@
+package com.himanshuvirmani.benchmark;
+
+public enum OrderState {
+    CREATED, ONHOLD, DELIVERED, CANCELLED
+}
@@ -0,0 +1,41 @@
+package com.himanshuvirmani.benchmark;
+
+import com.himanshuvirmani.Guard;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+
+/**
+ * Transition graph shared by the benchmarks. Firing {@link #CYCLE} in order from {@link OrderState#CREATED}
+ * goes through every transition and comes back to it.
+ */
+final class Orders {
+
+    static final OrderEvent[] CYCLE = {OrderEvent.HOLD, OrderEvent.DELIVER, OrderEvent.REOPEN};
+
+    private Orders() {
+    }
+
+    static StateMachine<OrderState, OrderEvent> machine() throws TransitionCreationException {
+        final StateMachine<OrderState, OrderEvent> stateMachine = new StateMachine<OrderState, OrderEvent>(OrderState.CREATED);
+        stateMachine.transition().from(OrderState.CREATED).to(OrderState.ONHOLD).on(OrderEvent.HOLD).create();
+        stateMachine.transition().from(OrderState.ONHOLD).to(OrderState.DELIVERED).on(OrderEvent.DELIVER).create();
+        stateMachine.transition().from(OrderState.DELIVERED).to(OrderState.CREATED).on(OrderEvent.REOPEN).create();
+        stateMachine.transition().from(OrderState.ONHOLD).to(OrderState.CANCELLED).on(OrderEvent.CANCEL).create();
+        return stateMachine;
+    }
+
+    /**
+     * Same graph where HOLD first tries a guarded transition to CANCELLED which is rejected for even amounts.
+     */
+    static StateMachine<OrderState, OrderEvent> guardedMachine() throws TransitionCreationException {
+        final StateMachine<OrderState, OrderEvent> stateMachine = machine();
+        stateMachine.transition().from(OrderState.CREATED).to(OrderState.CANCELLED).on(OrderEvent.HOLD).priority(1)
+                .when(Integer.class, new Guard<OrderState, OrderEvent, Integer>() {
+                    @Override
+                    public boolean isMet(OrderState from, OrderEvent on, Integer amount) {
+                        return (amount & 1) == 1;
+                    }
+                }).create();
+        return stateMachine;
+    }
+}
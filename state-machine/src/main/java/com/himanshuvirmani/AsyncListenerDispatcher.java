@@ -0,0 +1,197 @@
+package com.himanshuvirmani;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs state machine listeners on an executor instead of the thread firing the event. Each state machine gets
+ * its own channel, so listeners of one machine run one at a time and in the order of its transitions, while
+ * different machines are dispatched concurrently. Any executor can be used, including a virtual thread per task
+ * executor on JDK 21.
+ * <p>
+ * At most {@code maxPending} callbacks are queued across all machines sharing the dispatcher; firing blocks once
+ * that limit is reached until listeners catch up. Events fired by the listeners themselves never block, their
+ * callbacks are queued beyond the limit instead. Listeners should still not wait on events fired on another
+ * machine of the same dispatcher.
+ * <p>
+ * A listener failure completes the future of the next {@code fireAsync} of its machine exceptionally and is
+ * passed to the {@link FailureHandler}, by default the uncaught exception handler of the executor's thread.
+ */
+public class AsyncListenerDispatcher {
+
+    private static final int MAX_BATCH = 64;
+
+    private final Executor executor;
+
+    private final Semaphore permits;
+
+    /**
+     * Callbacks queued without a permit by listeners, whose permits are not released once they ran.
+     */
+    private final AtomicInteger overdraft = new AtomicInteger();
+
+    /**
+     * Set while the current thread runs callbacks of this dispatcher.
+     */
+    private final ThreadLocal<Boolean> running = new ThreadLocal<Boolean>();
+
+    private volatile FailureHandler failureHandler;
+
+    public AsyncListenerDispatcher(Executor executor, int maxPending) {
+        if (maxPending <= 0)
+            throw new IllegalArgumentException("maxPending should be positive");
+        this.executor = executor;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    public FailureHandler getFailureHandler() {
+        return failureHandler;
+    }
+
+    /**
+     * @param failureHandler called with every listener failure, or null to use the uncaught exception handler
+     */
+    public void setFailureHandler(FailureHandler failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    Channel newChannel() {
+        return new Channel();
+    }
+
+    private void acquire() {
+        if (running.get() == null) {
+            permits.acquireUninterruptibly();
+        } else if (!permits.tryAcquire()) {
+            overdraft.incrementAndGet();
+        }
+    }
+
+    private void release() {
+        int current;
+        do {
+            current = overdraft.get();
+            if (current == 0) {
+                permits.release();
+                return;
+            }
+        } while (!overdraft.compareAndSet(current, current - 1));
+    }
+
+    /**
+     * Passes a listener failure to the handler. A failing handler is ignored so that the channel keeps going.
+     */
+    private void report(Throwable failure) {
+        try {
+            final FailureHandler handler = failureHandler;
+            if (handler != null) {
+                handler.onFailure(failure);
+                return;
+            }
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    public interface FailureHandler {
+        void onFailure(Throwable failure);
+    }
+
+    /**
+     * Serial queue of listener callbacks of a single state machine.
+     */
+    final class Channel implements Runnable {
+
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * First listener failure since the last completion, only accessed by the draining thread.
+         */
+        private Throwable failure;
+
+        void dispatch(Runnable task) {
+            acquire();
+            tasks.add(task);
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                // a callback polled meanwhile by a running drain releases its permit once it ran
+                if (tasks.remove(task)) release();
+                throw e;
+            }
+        }
+
+        /**
+         * @return a future completed with {@code result} once every callback dispatched so far has run, or
+         * completed exceptionally with the first listener failure since the previous completion
+         */
+        CompletableFuture<TransitionResult> complete(final TransitionResult result) {
+            final CompletableFuture<TransitionResult> future = new CompletableFuture<TransitionResult>();
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    final Throwable error = failure;
+                    failure = null;
+                    if (error != null) future.completeExceptionally(error);
+                    else future.complete(result);
+                }
+            });
+            return future;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                runBatch();
+                scheduled.set(false);
+                if (tasks.isEmpty()) return;
+                try {
+                    schedule();
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // keep running the callbacks on this thread rather than stranding them and their permits
+                    if (!scheduled.compareAndSet(false, true)) return;
+                }
+            }
+        }
+
+        private void runBatch() {
+            Runnable task;
+            int ran = 0;
+            running.set(Boolean.TRUE);
+            try {
+                while (ran < MAX_BATCH && (task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        if (failure == null) failure = t;
+                        report(t);
+                    } finally {
+                        release();
+                    }
+                    ran++;
+                }
+            } finally {
+                running.remove();
+            }
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+}
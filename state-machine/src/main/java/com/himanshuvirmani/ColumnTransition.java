@@ -0,0 +1,76 @@
+package com.himanshuvirmani;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Applies an event, or a column of events, to a column of state ordinals in place.
+ * Columns longer than {@link #CHUNK_SIZE} are split and processed in parallel on the common fork join pool.
+ */
+class ColumnTransition extends RecursiveTask<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int CHUNK_SIZE = 1 << 14;
+
+    private final TransitionTable<?, ?> table;
+
+    private final int[] states;
+
+    private final byte[] byteStates;
+
+    private final int[] events;
+
+    private final byte[] byteEvents;
+
+    private final int event;
+
+    private final int lo;
+
+    private final int hi;
+
+    ColumnTransition(TransitionTable<?, ?> table, int[] states, byte[] byteStates,
+                     int[] events, byte[] byteEvents, int event, int lo, int hi) {
+        this.table = table;
+        this.states = states;
+        this.byteStates = byteStates;
+        this.events = events;
+        this.byteEvents = byteEvents;
+        this.event = event;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    @Override
+    protected Integer compute() {
+        if (hi - lo <= CHUNK_SIZE) return apply();
+
+        final int mid = (lo + hi) >>> 1;
+        final ColumnTransition left = new ColumnTransition(table, states, byteStates, events, byteEvents, event, lo, mid);
+        final ColumnTransition right = new ColumnTransition(table, states, byteStates, events, byteEvents, event, mid, hi);
+        left.fork();
+        final int transitioned = right.compute();
+        return transitioned + left.join();
+    }
+
+    private int apply() {
+        int transitioned = 0;
+        if (states != null) {
+            for (int i = lo; i < hi; i++) {
+                final int next = table.next(states[i], events == null ? event : events[i], null);
+                if (next >= 0 && next != states[i]) {
+                    states[i] = next;
+                    transitioned++;
+                }
+            }
+        } else {
+            for (int i = lo; i < hi; i++) {
+                final int next = table.next(byteStates[i] & 0xFF, byteEvents == null ? event : byteEvents[i] & 0xFF, null);
+                if (next >= 0 && next != (byteStates[i] & 0xFF)) {
+                    byteStates[i] = (byte) next;
+                    transitioned++;
+                }
+            }
+        }
+        return transitioned;
+    }
+}
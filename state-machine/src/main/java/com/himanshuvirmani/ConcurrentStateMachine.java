@@ -0,0 +1,160 @@
+package com.himanshuvirmani;
+
+import com.himanshuvirmani.exceptions.TransitionConditionNotMetException;
+import com.himanshuvirmani.exceptions.TransitionException;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * State machine backed by a shared {@link StateMachineDefinition} that can be fired from several threads at once
+ * without locking. The current state is committed with a compare and set, so exactly one of several racing
+ * events wins a given state and listeners are only called for the transition that was committed.
+ * <p>
+ * Conditions are evaluated before the commit and may run more than once when a firing is retried.
+ */
+public class ConcurrentStateMachine<T, E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConcurrentStateMachine, Object> CURRENT_STATE =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentStateMachine.class, Object.class, "currentState");
+
+    private final StateMachineDefinition<T, E> definition;
+
+    @Getter
+    private volatile T currentState;
+
+    @Getter
+    @Setter
+    private volatile StateMachine.StateChangeListener<T, E> stateChangeListener;
+
+    private volatile StateChangeListeners<T, E> stateChangeListeners;
+
+    /**
+     * Counters and latencies of the events fired on this machine, none by default. Lost compare and set races
+     * are counted as {@link TransitionResult#STATE_MISMATCH}, including those retried by {@code tryFire}.
+     */
+    @Getter
+    @Setter
+    private volatile TransitionMetrics<T, E> metrics;
+
+    public ConcurrentStateMachine(StateMachineDefinition<T, E> definition, T initialState) {
+        this.definition = definition;
+        this.currentState = initialState;
+    }
+
+    public StateMachineDefinition<T, E> getDefinition() {
+        return definition;
+    }
+
+    public void addStateChangeListener(StateMachine.StateChangeListener<T, E> listener) {
+        addStateChangeListener(null, null, null, listener);
+    }
+
+    /**
+     * Adds a listener only called for state changes matching the given from state, to state and event,
+     * null matching anything.
+     */
+    public synchronized void addStateChangeListener(T from, T to, E on, StateMachine.StateChangeListener<T, E> listener) {
+        if (stateChangeListeners == null)
+            stateChangeListeners = new StateChangeListeners<T, E>();
+        stateChangeListeners.add(from, to, on, listener);
+    }
+
+    public synchronized boolean removeStateChangeListener(StateMachine.StateChangeListener<T, E> listener) {
+        return stateChangeListeners != null && stateChangeListeners.remove(listener);
+    }
+
+    public void fire(E event) throws TransitionException {
+        final T state = currentState;
+        switch (tryFire(event)) {
+            case CONDITION_NOT_MET:
+                throw new TransitionConditionNotMetException("No transitions defined from Current State " + state + " for Event " + event);
+            case NO_TRANSITION:
+                throw new TransitionException("No transitions defined from Current State " + state + " for Event " + event);
+        }
+    }
+
+    /**
+     * Fires the event, evaluating it again from the new state whenever another thread commits a transition first.
+     *
+     * @return how the event was handled
+     */
+    public TransitionResult tryFire(E event) {
+        return tryFire(event, null);
+    }
+
+    /**
+     * Same as {@link #tryFire(Object)}, passing {@code context} to the {@link Guard} of the transition.
+     */
+    public TransitionResult tryFire(E event, Object context) {
+        while (true) {
+            final T state = currentState;
+            final TransitionResult result = fireFrom(state, event, context);
+            if (result != TransitionResult.STATE_MISMATCH) return result;
+        }
+    }
+
+    /**
+     * Fires the event only if the machine is in {@code expectedState}, for optimistic concurrency.
+     *
+     * @return {@link TransitionResult#STATE_MISMATCH} when the machine is in another state or another transition
+     * committed first, otherwise how the event was handled
+     */
+    public TransitionResult fireIfIn(T expectedState, E event) {
+        return fireIfIn(expectedState, event, null);
+    }
+
+    /**
+     * Same as {@link #fireIfIn(Object, Object)}, passing {@code context} to the {@link Guard} of the transition.
+     */
+    public TransitionResult fireIfIn(T expectedState, E event, Object context) {
+        final T state = currentState;
+        if (state == null || !state.equals(expectedState)) {
+            final TransitionMetrics<T, E> metrics = this.metrics;
+            if (metrics != null) metrics.record(state, event, null, TransitionResult.STATE_MISMATCH);
+            return TransitionResult.STATE_MISMATCH;
+        }
+        return fireFrom(state, event, context);
+    }
+
+    private TransitionResult fireFrom(T state, E event, Object context) {
+        final TransitionMetrics<T, E> metrics = this.metrics;
+        if (state == null) {
+            if (metrics != null) metrics.record(null, event, null, TransitionResult.NO_TRANSITION);
+            return TransitionResult.NO_TRANSITION;
+        }
+
+        final boolean timing = metrics != null && metrics.isTiming();
+        long start = timing ? System.nanoTime() : 0;
+        final Transition<T, E> transition = definition.select(state, event, context);
+        if (timing) metrics.recordGuard(System.nanoTime() - start);
+
+        final TransitionResult result = definition.resultOf(transition, state, event);
+        if (result != TransitionResult.TRANSITIONED) {
+            if (metrics != null) metrics.record(state, event, null, result);
+            return result;
+        }
+
+        if (!CURRENT_STATE.compareAndSet(this, state, transition.getTo())) {
+            if (metrics != null) metrics.record(state, event, null, TransitionResult.STATE_MISMATCH);
+            return TransitionResult.STATE_MISMATCH;
+        }
+        if (metrics != null) metrics.record(state, event, transition.getTo(), result);
+
+        if (timing) start = System.nanoTime();
+        transition.notifySuccess(state, transition.getTo(), event);
+
+        final StateMachine.StateChangeListener<T, E> listener = stateChangeListener;
+        if (listener != null)
+            listener.onStateChanged(state, transition.getTo(), event);
+
+        final StateChangeListeners<T, E> listeners = stateChangeListeners;
+        if (listeners != null)
+            listeners.dispatch(definition, state, transition.getTo(), event);
+        if (timing) metrics.recordListeners(System.nanoTime() - start);
+
+        return result;
+    }
+}
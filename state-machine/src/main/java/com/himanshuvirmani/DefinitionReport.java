@@ -0,0 +1,73 @@
+package com.himanshuvirmani;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structural problems found in a {@link StateMachineDefinition} by {@link StateMachineDefinition#validate}.
+ * Conditions and guards are not evaluated, every transition is assumed to be able to fire.
+ */
+@Getter
+public final class DefinitionReport<T, E> {
+
+    /** States no transition path leads to from the initial state. */
+    private final List<T> unreachableStates;
+
+    /** Reachable states, other than the final ones, having no transition to another state. */
+    private final List<T> deadEndStates;
+
+    /** Events having no transition out of any reachable state, or only ignored ones. */
+    private final List<E> unusedEvents;
+
+    /** Transitions replaced by a later one applied for the same from state, event and priority. */
+    private final List<Transition<T, E>> overwrittenTransitions;
+
+    /** Transitions never taken because an unconditional one of a higher priority is always taken first. */
+    private final List<Transition<T, E>> shadowedTransitions;
+
+    DefinitionReport(List<T> unreachableStates, List<T> deadEndStates, List<E> unusedEvents,
+                     List<Transition<T, E>> overwrittenTransitions, List<Transition<T, E>> shadowedTransitions) {
+        this.unreachableStates = Collections.unmodifiableList(unreachableStates);
+        this.deadEndStates = Collections.unmodifiableList(deadEndStates);
+        this.unusedEvents = Collections.unmodifiableList(unusedEvents);
+        this.overwrittenTransitions = Collections.unmodifiableList(overwrittenTransitions);
+        this.shadowedTransitions = Collections.unmodifiableList(shadowedTransitions);
+    }
+
+    public boolean isValid() {
+        return unreachableStates.isEmpty() && deadEndStates.isEmpty() && unusedEvents.isEmpty()
+                && overwrittenTransitions.isEmpty() && shadowedTransitions.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (isValid()) return "No problems found";
+        final StringBuilder builder = new StringBuilder();
+        append(builder, "Unreachable states", unreachableStates);
+        append(builder, "Dead end states", deadEndStates);
+        append(builder, "Unused events", unusedEvents);
+        appendTransitions(builder, "Overwritten transitions", overwrittenTransitions);
+        appendTransitions(builder, "Shadowed transitions", shadowedTransitions);
+        return builder.toString();
+    }
+
+    private static <T, E> void appendTransitions(StringBuilder builder, String title, List<Transition<T, E>> transitions) {
+        if (transitions.isEmpty()) return;
+        if (builder.length() > 0) builder.append(". ");
+        builder.append(title).append(": ");
+        for (int i = 0; i < transitions.size(); i++) {
+            final Transition<T, E> transition = transitions.get(i);
+            if (i > 0) builder.append(", ");
+            builder.append(transition.isAnyState() ? "any state" : transition.getFrom()).append(" on ")
+                    .append(transition.isAnyEvent() ? "any event" : transition.getOn());
+        }
+    }
+
+    private static void append(StringBuilder builder, String title, List<?> values) {
+        if (values.isEmpty()) return;
+        if (builder.length() > 0) builder.append(". ");
+        builder.append(title).append(": ").append(values);
+    }
+}
@@ -0,0 +1,118 @@
+package com.himanshuvirmani;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ring buffer of events and their contexts for run-to-completion machines. Any number of threads can
+ * offer events without locking or allocating, while events are taken by one thread at a time, the one holding
+ * the drain flag. Slots are claimed with a sequence number per slot, as in Dmitry Vyukov's bounded queue.
+ */
+final class EventQueue<E> {
+
+    private final Object[] events;
+
+    private final Object[] contexts;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private volatile long head;
+
+    private E polledEvent;
+
+    private Object polledContext;
+
+    /**
+     * @param capacity rounded up to a power of two, at least two so that the sequence of a filled slot differs
+     *                 from the one of the same slot freed
+     */
+    EventQueue(int capacity) {
+        int size = 2;
+        while (size < capacity) size <<= 1;
+        events = new Object[size];
+        contexts = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @return false when the queue is full
+     */
+    boolean offer(E event, Object context) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events[index] = event;
+                    contexts[index] = context;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest event, made available by {@link #polledEvent()} and {@link #polledContext()}.
+     * Only called by the thread holding the drain flag.
+     *
+     * @return false when the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    boolean poll() {
+        final long position = head;
+        final int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) return false;
+
+        polledEvent = (E) events[index];
+        polledContext = contexts[index];
+        events[index] = null;
+        contexts[index] = null;
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return true;
+    }
+
+    E polledEvent() {
+        return polledEvent;
+    }
+
+    Object polledContext() {
+        return polledContext;
+    }
+
+    boolean isEmpty() {
+        final long position = head;
+        return sequences.get((int) (position & mask)) != position + 1;
+    }
+
+    /**
+     * @return true when the calling thread now holds the drain flag
+     */
+    boolean tryDrain() {
+        return !draining.get() && draining.compareAndSet(false, true);
+    }
+
+    void endDrain() {
+        polledEvent = null;
+        polledContext = null;
+        draining.set(false);
+    }
+}
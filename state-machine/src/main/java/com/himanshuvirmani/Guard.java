@@ -0,0 +1,12 @@
+package com.himanshuvirmani;
+
+/**
+ * Condition of a transition evaluated against the event being fired. Unlike {@link Condition} a guard receives
+ * the state the machine is in, the event and the context passed when firing, so a single stateless guard can
+ * be shared by every machine and thread using a definition.
+ *
+ * @param <C> type of the context passed when firing, null when the event is fired without one
+ */
+public interface Guard<T, E, C> {
+    boolean isMet(T from, E on, C context);
+}
@@ -0,0 +1,61 @@
+package com.himanshuvirmani;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * State machine holding the code of its current state as a primitive int, see
+ * {@link StateMachineDefinition#ordinalOfState}. States and events are enum ordinals, or for other values the
+ * codes interned when the definition was compiled, so that firing is a lookup in the definition's table without
+ * boxing, hashing or allocating. Listeners are not called; use a {@link StateMachine} for those.
+ * <p>
+ * Like {@link StateMachine} it is not thread safe. {@link StateMachineDefinition#nextOrdinal(int, int)} is the
+ * stateless form of {@link #fire(int)}.
+ */
+public final class IntStateMachine<T, E> {
+
+    private final StateMachineDefinition<T, E> definition;
+
+    @Getter
+    @Setter
+    private int state;
+
+    public IntStateMachine(StateMachineDefinition<T, E> definition, int state) {
+        if (!definition.hasTable())
+            throw new IllegalArgumentException("Int state machine needs a definition with transitions");
+        if (state < 0 || state >= definition.getStateCount())
+            throw new IllegalArgumentException("No state with code " + state);
+        this.definition = definition;
+        this.state = state;
+    }
+
+    public IntStateMachine(StateMachineDefinition<T, E> definition, T state) {
+        this(definition, definition.ordinalOfState(state));
+    }
+
+    /**
+     * @return the code of the state the event leads to, or one of {@link StateMachineDefinition#IGNORED},
+     * {@link StateMachineDefinition#NO_TRANSITION} and {@link StateMachineDefinition#CONDITION_NOT_MET},
+     * in which case the state is unchanged
+     */
+    public int fire(int event) {
+        return fire(event, null);
+    }
+
+    /**
+     * Same as {@link #fire(int)}, passing {@code context} to the {@link Guard} of the transition.
+     */
+    public int fire(int event, Object context) {
+        final int next = definition.nextOrdinal(state, event, context);
+        if (next >= 0) state = next;
+        return next;
+    }
+
+    public T getCurrentState() {
+        return definition.getState(state);
+    }
+
+    public StateMachineDefinition<T, E> getDefinition() {
+        return definition;
+    }
+}
@@ -0,0 +1,21 @@
+package com.himanshuvirmani;
+
+/**
+ * Receives the values of a {@link TransitionMetrics} when it is reported, for example to publish them to a
+ * monitoring system. Only non zero counters are reported.
+ */
+public interface MetricsSink<T, E> {
+
+    /**
+     * @param to     the state the event led to when {@code result} is {@link TransitionResult#TRANSITIONED},
+     *               null otherwise
+     * @param result how the events were handled
+     */
+    void counter(T from, E on, T to, TransitionResult result, long count);
+
+    /**
+     * @param name {@code guard} for the time taken to select a transition, conditions and guards included,
+     *             or {@code listeners} for the time taken to notify listeners
+     */
+    void histogram(String name, LatencyHistogram histogram);
+}
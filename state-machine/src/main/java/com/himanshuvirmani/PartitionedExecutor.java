@@ -0,0 +1,266 @@
+package com.himanshuvirmani;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the entities of a shared {@link StateMachineDefinition} on a fixed set of worker threads, each entity
+ * pinned to the worker its id hashes to. A worker owns plain {@link StateMachine}s and handles the tasks of its
+ * lock-free inbox one at a time, so entities need no locking and events for one entity are handled in the order
+ * they were submitted. Entities on different workers are handled in parallel.
+ * <p>
+ * Every operation returns a future completed on the owning worker. Callbacks attached to it without an executor,
+ * as well as listeners, run on that worker and should not block.
+ */
+public class PartitionedExecutor<K, T, E> {
+
+    private final StateMachineDefinition<T, E> definition;
+
+    private final Worker[] workers;
+
+    /**
+     * Listener of every transition of every entity, called on the entity's worker.
+     */
+    @Getter
+    @Setter
+    private volatile StateMachineRegistry.EntityStateChangeListener<K, T, E> stateChangeListener;
+
+    private volatile boolean shutdown;
+
+    public PartitionedExecutor(StateMachineDefinition<T, E> definition) {
+        this(definition, Runtime.getRuntime().availableProcessors());
+    }
+
+    public PartitionedExecutor(StateMachineDefinition<T, E> definition, int workerCount) {
+        if (workerCount <= 0)
+            throw new IllegalArgumentException("Worker count should be positive");
+        this.definition = definition;
+        workers = newWorkers(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("state-machine-worker-" + i);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Worker[] newWorkers(int count) {
+        return (Worker[]) new PartitionedExecutor<?, ?, ?>.Worker[count];
+    }
+
+    public StateMachineDefinition<T, E> getDefinition() {
+        return definition;
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Registers an entity in the given state, replacing the state of an already registered one.
+     */
+    public CompletableFuture<Void> register(final K id, final T state) {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        submit(id, future, new Task<K, T, E>() {
+            @Override
+            public void run(Worker worker) {
+                final StateMachine<T, E> machine = worker.machines.get(id);
+                if (machine != null) {
+                    machine.setCurrentState(state);
+                } else {
+                    worker.machines.put(id, newMachine(id, state));
+                }
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return a future completed with the last state of the entity, or null when it was not registered
+     */
+    public CompletableFuture<T> remove(final K id) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        submit(id, future, new Task<K, T, E>() {
+            @Override
+            public void run(Worker worker) {
+                final StateMachine<T, E> machine = worker.machines.remove(id);
+                future.complete(machine == null ? null : machine.getCurrentState());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return a future completed with the current state of the entity, or null when it is not registered
+     */
+    public CompletableFuture<T> getState(final K id) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        submit(id, future, new Task<K, T, E>() {
+            @Override
+            public void run(Worker worker) {
+                final StateMachine<T, E> machine = worker.machines.get(id);
+                future.complete(machine == null ? null : machine.getCurrentState());
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<TransitionResult> fire(K id, E event) {
+        return fire(id, event, null);
+    }
+
+    /**
+     * Fires the event on the entity's worker, passing {@code context} to the {@link Guard} of the transition.
+     *
+     * @return a future completed with how the event was handled, {@link TransitionResult#NO_TRANSITION} when the
+     * entity is not registered, or exceptionally when a listener threw
+     */
+    public CompletableFuture<TransitionResult> fire(final K id, final E event, final Object context) {
+        final CompletableFuture<TransitionResult> future = new CompletableFuture<TransitionResult>();
+        submit(id, future, new Task<K, T, E>() {
+            @Override
+            public void run(Worker worker) {
+                final StateMachine<T, E> machine = worker.machines.get(id);
+                future.complete(machine == null ? TransitionResult.NO_TRANSITION : machine.tryFire(event, context));
+            }
+        });
+        return future;
+    }
+
+    private StateMachine<T, E> newMachine(final K id, T state) {
+        final StateMachine<T, E> machine = new StateMachine<T, E>(definition, state);
+        machine.setStateChangeListener(new StateMachine.StateChangeListener<T, E>() {
+            @Override
+            public void onStateChanged(T from, T to, E on) {
+                final StateMachineRegistry.EntityStateChangeListener<K, T, E> listener = stateChangeListener;
+                if (listener != null) listener.onStateChanged(id, from, to, on);
+            }
+        });
+        return machine;
+    }
+
+    private void submit(K id, CompletableFuture<?> future, Task<K, T, E> task) {
+        if (shutdown) {
+            future.completeExceptionally(new RejectedExecutionException("Executor has been shut down"));
+            return;
+        }
+        workerFor(id).enqueue(new Submission<K, T, E>(task, future));
+    }
+
+    private Worker workerFor(K id) {
+        final int hash = id.hashCode();
+        return workers[Math.floorMod(hash ^ (hash >>> 16), workers.length)];
+    }
+
+    /**
+     * Stops accepting tasks. Workers finish the tasks already submitted, then exit.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    /**
+     * @return false when a worker is still running once the timeout has passed
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) worker.thread.join(remaining);
+            if (worker.thread.isAlive()) return false;
+        }
+        return true;
+    }
+
+    private interface Task<K, T, E> {
+        void run(PartitionedExecutor<K, T, E>.Worker worker);
+    }
+
+    private static final class Submission<K, T, E> {
+
+        private final Task<K, T, E> task;
+
+        private final CompletableFuture<?> future;
+
+        private Submission(Task<K, T, E> task, CompletableFuture<?> future) {
+            this.task = task;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Single thread owning the machines of its entities. It parks while its inbox is empty; submitters unpark
+     * it after adding a task when it announced it was about to park.
+     */
+    final class Worker implements Runnable {
+
+        private final ConcurrentLinkedQueue<Submission<K, T, E>> inbox = new ConcurrentLinkedQueue<Submission<K, T, E>>();
+
+        private final Map<K, StateMachine<T, E>> machines = new HashMap<K, StateMachine<T, E>>();
+
+        private final Thread thread;
+
+        private volatile boolean parked;
+
+        private volatile boolean stopped;
+
+        private Worker(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        private void enqueue(Submission<K, T, E> submission) {
+            inbox.add(submission);
+            if (parked) LockSupport.unpark(thread);
+            if (stopped) rejectAll();
+        }
+
+        /**
+         * Rejects tasks added while the worker was stopping, either by the worker itself or by a submitter which
+         * saw it stopped after adding its task.
+         */
+        private void rejectAll() {
+            Submission<K, T, E> submission;
+            while ((submission = inbox.poll()) != null) {
+                submission.future.completeExceptionally(new RejectedExecutionException("Executor has been shut down"));
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Submission<K, T, E> submission = inbox.poll();
+                if (submission != null) {
+                    try {
+                        submission.task.run(this);
+                    } catch (Throwable t) {
+                        submission.future.completeExceptionally(t);
+                    }
+                    continue;
+                }
+                if (shutdown) {
+                    stopped = true;
+                    rejectAll();
+                    return;
+                }
+
+                parked = true;
+                if (inbox.isEmpty() && !shutdown) LockSupport.park(this);
+                parked = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.himanshuvirmani;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link TransitionTracer} writing to slf4j. Messages are only formatted when the level is enabled;
+ * accepted events are logged at debug and rejected ones at info. Needs {@code slf4j-api} on the classpath, which
+ * the library does not bring transitively.
+ */
+@Slf4j
+public class Slf4jTransitionTracer<T, E> implements TransitionTracer<T, E> {
+
+    @Override
+    public void trace(T from, E on, T to, TransitionResult result) {
+        switch (result) {
+            case TRANSITIONED:
+                log.debug("Transition from {} to {} on {}", from, to, on);
+                break;
+            case IGNORED:
+                log.debug("Transition ignored for From State {} on {}", from, on);
+                break;
+            case CONDITION_NOT_MET:
+                log.info("Transition Condition Not Met from {} on {}", from, on);
+                break;
+            default:
+                log.info("No transitions defined from {} on {}", from, on);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.himanshuvirmani;
+
+/**
+ * Copy on write list of state change listeners, each optionally filtered by from state, to state and event.
+ * For machines backed by a {@link StateMachineDefinition} with a table the matching listeners are resolved once per
+ * (state, event) cell, so that dispatching a transition is a single loop over a prebuilt array.
+ */
+final class StateChangeListeners<T, E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    @SuppressWarnings("rawtypes")
+    private static final StateMachine.StateChangeListener[] NO_LISTENERS = new StateMachine.StateChangeListener[0];
+
+    @SuppressWarnings("unchecked")
+    private volatile Entry<T, E>[] entries = NO_ENTRIES;
+
+    private volatile Resolution<T, E> resolution;
+
+    boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    synchronized void add(T from, T to, E on, StateMachine.StateChangeListener<T, E> listener) {
+        final Entry<T, E>[] current = entries;
+        final Entry<T, E>[] updated = newEntries(current.length + 1);
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = new Entry<T, E>(from, to, on, listener);
+        entries = updated;
+    }
+
+    synchronized boolean remove(StateMachine.StateChangeListener<T, E> listener) {
+        final Entry<T, E>[] current = entries;
+        int kept = 0;
+        final Entry<T, E>[] updated = newEntries(current.length);
+        for (Entry<T, E> entry : current) {
+            if (entry.listener != listener) updated[kept++] = entry;
+        }
+        if (kept == current.length) return false;
+
+        final Entry<T, E>[] trimmed = newEntries(kept);
+        System.arraycopy(updated, 0, trimmed, 0, kept);
+        entries = trimmed;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, E> Entry<T, E>[] newEntries(int length) {
+        return (Entry<T, E>[]) new Entry<?, ?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, E> StateMachine.StateChangeListener<T, E>[] newListeners(int length) {
+        return (StateMachine.StateChangeListener<T, E>[]) new StateMachine.StateChangeListener<?, ?>[length];
+    }
+
+    void dispatch(StateMachineDefinition<T, E> definition, T from, T to, E on) {
+        final Entry<T, E>[] current = entries;
+        if (current.length == 0) return;
+
+        if (definition == null || !definition.hasTable()) {
+            for (Entry<T, E> entry : current) {
+                if (entry.matches(from, to, on)) entry.listener.onStateChanged(from, to, on);
+            }
+            return;
+        }
+
+        Resolution<T, E> resolved = resolution;
+        if (resolved == null || resolved.definition != definition || resolved.entries != current) {
+            resolved = new Resolution<T, E>(definition, current);
+            resolution = resolved;
+        }
+
+        final int cell = definition.cellOf(from, on);
+        final StateMachine.StateChangeListener<T, E>[] listeners = cell < 0 ? null : resolved.cells[cell];
+        if (listeners == null) {
+            for (Entry<T, E> entry : current) {
+                if (entry.matches(from, to, on)) entry.listener.onStateChanged(from, to, on);
+            }
+            return;
+        }
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onStateChanged(from, to, on);
+        }
+    }
+
+    private static final class Entry<T, E> {
+
+        private final T from;
+
+        private final T to;
+
+        private final E on;
+
+        private final StateMachine.StateChangeListener<T, E> listener;
+
+        private Entry(T from, T to, E on, StateMachine.StateChangeListener<T, E> listener) {
+            this.from = from;
+            this.to = to;
+            this.on = on;
+            this.listener = listener;
+        }
+
+        private boolean matches(T from, T to, E on) {
+            return (this.from == null || this.from.equals(from))
+                    && (this.to == null || this.to.equals(to))
+                    && (this.on == null || this.on.equals(on));
+        }
+    }
+
+    /**
+     * Listeners matching each (state, event) cell of a definition, built from one snapshot of the entries.
+     * Cells whose candidate transitions lead to different states are left null and filtered when dispatching.
+     */
+    private static final class Resolution<T, E> {
+
+        private final StateMachineDefinition<T, E> definition;
+
+        private final Entry<T, E>[] entries;
+
+        private final StateMachine.StateChangeListener<T, E>[][] cells;
+
+        @SuppressWarnings("unchecked")
+        private Resolution(StateMachineDefinition<T, E> definition, Entry<T, E>[] entries) {
+            this.definition = definition;
+            this.entries = entries;
+
+            final int stateCount = definition.getStateCount();
+            final int eventCount = definition.getEventCount();
+            cells = (StateMachine.StateChangeListener<T, E>[][]) new StateMachine.StateChangeListener<?, ?>[stateCount * eventCount][];
+
+            final StateMachine.StateChangeListener<T, E>[] matching = newListeners(entries.length);
+            for (int e = 0; e < eventCount; e++) {
+                for (int s = 0; s < stateCount; s++) {
+                    if (!definition.hasSingleTarget(s, e)) continue;
+
+                    final Transition<T, E> transition = definition.getTransition(s, e);
+                    int count = 0;
+                    if (transition != null && !transition.isIgnore() && transition.getTo() != null) {
+                        for (Entry<T, E> entry : entries) {
+                            if (entry.matches(definition.getState(s), transition.getTo(), definition.getEvent(e)))
+                                matching[count++] = entry.listener;
+                        }
+                    }
+                    final StateMachine.StateChangeListener<T, E>[] cell;
+                    if (count == 0) {
+                        cell = NO_LISTENERS;
+                    } else {
+                        cell = newListeners(count);
+                        System.arraycopy(matching, 0, cell, 0, count);
+                    }
+                    cells[e * stateCount + s] = cell;
+                }
+            }
+        }
+    }
+}
@@ -6,65 +6,435 @@ import com.himanshuvirmani.exceptions.TransitionException;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * Created by himanshu.virmani on 13/11/15.
  */
-@Slf4j
 @NoArgsConstructor
 public class StateMachine<T, E> {
 
-    private LinkedHashMap<E, Map<T, Transition<T, E>>> stateTransitions;
+    private LinkedHashMap<E, Map<T, Transition<T, E>[]>> stateTransitions;
+
+    private StateMachineDefinition<T, E> definition;
+
+    private List<Transition<T, E>> overwrittenTransitions;
+
+    private Map<T, T> parentStates;
+
+    private WildcardTransitions<T, E> wildcardTransitions;
+
+    private Map<T, StateTimeout<T, E>> stateTimeouts;
 
     @Getter
     @Setter
     private StateChangeListener<T, E> stateChangeListener;
 
+    @Getter
+    @Setter
+    private TransitionTracer<T, E> transitionTracer;
+
     @Getter
     @Setter
     private T currentState;
 
+    /**
+     * Counters and latencies of the events fired on this machine, none by default.
+     */
+    @Getter
+    @Setter
+    private TransitionMetrics<T, E> metrics;
+
+    private StateChangeListeners<T, E> stateChangeListeners;
+
+    private AsyncListenerDispatcher.Channel listenerChannel;
+
+    private EventQueue<E> eventQueue;
+
     public StateMachine(T initialState) {
         currentState = initialState;
     }
 
+    /**
+     * Creates a lightweight machine backed by a shared definition. Such a machine only holds its own
+     * current state and listener; transitions cannot be applied to it.
+     */
+    public StateMachine(StateMachineDefinition<T, E> definition, T initialState) {
+        this.definition = definition;
+        currentState = initialState;
+    }
+
     public void fire(E event) throws TransitionException {
+        fireWithContext(event, null);
+    }
+
+    /**
+     * Fires the event passing {@code context} to the {@link Guard} of the transition.
+     */
+    public void fireWithContext(E event, Object context) throws TransitionException {
+        final TransitionResult result = eventQueue == null ? step(event, context, null) : runToCompletion(event, context);
+        if (result.isAccepted() || result == TransitionResult.QUEUED) return;
+
         if (currentState == null)
             throw new TransitionException("current state cannot be null");
-        if (stateTransitions == null)
+        if (stateTransitions == null && definition == null)
             throw new TransitionException("No transitions defined for state machine");
-        if (stateTransitions.get(event) == null)
-            throw new TransitionException("No transitions defined for Event " + event);
-        if (stateTransitions.get(event).get(currentState) == null)
-            throw new TransitionException("No transitions defined from Current State " + currentState + " for Event " + event);
 
-        Transition<T, E> transition = stateTransitions.get(event).get(currentState);
+        switch (result) {
+            case CONDITION_NOT_MET:
+                throw new TransitionConditionNotMetException("No transitions defined from Current State " + currentState + " for Event " + event);
+            case NO_TRANSITION:
+                if (!hasTransitionsFor(event))
+                    throw new TransitionException("No transitions defined for Event " + event);
+                throw new TransitionException("No transitions defined from Current State " + currentState + " for Event " + event);
+        }
+    }
 
-        log.info("Event accepted with State Transition " + transition);
+    /**
+     * Fires the event without throwing for ordinary outcomes. Rejected events cost a lookup and leave
+     * the current state unchanged; listeners are only called when the machine transitions.
+     *
+     * @return how the event was handled
+     */
+    public TransitionResult tryFire(E event) {
+        return tryFire(event, null);
+    }
+
+    /**
+     * Same as {@link #tryFire(Object)}, passing {@code context} to the {@link Guard} of the transition.
+     *
+     * @throws IllegalArgumentException when the context is not of the type the guard was declared with
+     */
+    public TransitionResult tryFire(E event, Object context) {
+        return eventQueue == null ? step(event, context, null) : runToCompletion(event, context);
+    }
+
+    /**
+     * Handles events one at a time to completion, listeners included, from now on. An event fired while
+     * another is being handled, by one of its listeners or by another thread, is queued instead of being
+     * handled on top of it: {@code fire} and {@code tryFire} return at once, with {@link TransitionResult#QUEUED}
+     * for the latter, and the thread handling the first event goes on with the queued ones in the order they
+     * were fired. Rejected queued events are only seen by the tracer and metrics.
+     * <p>
+     * The queue holds up to {@code capacity} events, rounded up to a power of two of at least two, and does not
+     * allocate.
+     * Firing into a full queue throws {@link IllegalStateException}, see {@link #post(Object, Object)} for a
+     * non throwing variant. A batch fired with {@code fireAll} is handled as a whole once earlier events are, or
+     * queued event by event while another event is being handled, {@code fireAll} then returning -1.
+     *
+     * @param capacity size of the queue, or 0 to handle re-entrant events on the caller's stack again
+     */
+    public void setRunToCompletion(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Queue capacity cannot be negative");
+        eventQueue = capacity == 0 ? null : new EventQueue<E>(capacity);
+    }
 
-        if (transition.getTo() == null || transition.isIgnore()) {
-            log.info("Transition Ignored for From State "
-                    + transition.getFrom() + " on " + transition.getOn());
+    public boolean isRunToCompletion() {
+        return eventQueue != null;
+    }
+
+    /**
+     * Fires the event on a run-to-completion machine from any thread, like {@link #tryFire(Object, Object)}.
+     *
+     * @return false when the queue is full and the event was dropped
+     */
+    public boolean post(E event, Object context) {
+        final EventQueue<E> queue = eventQueue;
+        if (queue == null)
+            throw new IllegalStateException("Run to completion is not enabled");
+        if (queue.tryDrain()) {
+            try {
+                handleQueued(queue);
+                step(event, context, null);
+            } catch (Throwable t) {
+                drain(queue, t);
+                throw t;
+            }
+            drain(queue, null);
+            return true;
+        }
+        if (!queue.offer(event, context)) return false;
+        if (queue.tryDrain()) drain(queue, null);
+        return true;
+    }
+
+    private TransitionResult runToCompletion(E event, Object context) {
+        final EventQueue<E> queue = eventQueue;
+        if (queue.tryDrain()) {
+            final TransitionResult result;
+            try {
+                handleQueued(queue);
+                result = step(event, context, null);
+            } catch (Throwable t) {
+                drain(queue, t);
+                throw t;
+            }
+            drain(queue, null);
+            return result;
+        }
+        offer(queue, event, context);
+        if (queue.tryDrain()) drain(queue, null);
+        return TransitionResult.QUEUED;
+    }
+
+    private void offer(EventQueue<E> queue, E event, Object context) {
+        if (!queue.offer(event, context))
+            throw new IllegalStateException("Event queue is full, cannot fire " + event);
+    }
+
+    /**
+     * Handles the events queued before the drain flag was acquired, so that they are handled before the
+     * event of the thread acquiring it.
+     */
+    private void handleQueued(EventQueue<E> queue) {
+        while (queue.poll()) {
+            step(queue.polledEvent(), queue.polledContext(), null);
+        }
+    }
+
+    /**
+     * Handles queued events while holding the drain flag, then releases it. Events queued by other threads
+     * after the queue was seen empty but before the flag was released are picked up by checking again.
+     * <p>
+     * A failing event, such as a listener overflowing the queue, does not strand the events queued after it:
+     * they are handled too, and the first failure is thrown once the queue is empty. Failures are added as
+     * suppressed to {@code failure}, the one the caller is about to throw, when there is one.
+     */
+    private void drain(EventQueue<E> queue, Throwable failure) {
+        Throwable first = failure;
+        do {
+            while (true) {
+                try {
+                    handleQueued(queue);
+                    break;
+                } catch (Throwable t) {
+                    if (first == null) first = t;
+                    else if (t != first) first.addSuppressed(t);
+                }
+            }
+            queue.endDrain();
+        } while (!queue.isEmpty() && queue.tryDrain());
+        if (first == failure) return;
+        if (first instanceof Error) throw (Error) first;
+        throw (RuntimeException) first;
+    }
+
+    /**
+     * Fires the event like {@link #tryFire(Object)}. When a listener dispatcher is set the returned future
+     * completes once the listeners of this and all earlier transitions of the machine have run, otherwise
+     * it is already complete.
+     */
+    public CompletableFuture<TransitionResult> fireAsync(E event) {
+        final TransitionResult result = tryFire(event);
+        if (listenerChannel == null)
+            return CompletableFuture.completedFuture(result);
+        return listenerChannel.complete(result);
+    }
+
+    /**
+     * Runs the listeners of this machine on the dispatcher's executor from now on, or on the firing thread
+     * again when {@code dispatcher} is null.
+     */
+    public void setListenerDispatcher(AsyncListenerDispatcher dispatcher) {
+        listenerChannel = dispatcher == null ? null : dispatcher.newChannel();
+    }
+
+    public int fireAll(E[] events) {
+        return fireAll(events, false);
+    }
+
+    /**
+     * Fires the events in order, stopping at the first one that is rejected. Ignored events do not stop
+     * the batch. With {@code deferListeners} the listeners of all applied transitions are called in order
+     * once the batch is over instead of after each event.
+     *
+     * @return the index of the first rejected event, or -1 when every event was accepted
+     */
+    public int fireAll(E[] events, boolean deferListeners) {
+        if (eventQueue != null) return fireAll(Arrays.asList(events).iterator(), deferListeners);
+        final List<Transition<T, E>> applied = deferListeners ? new ArrayList<Transition<T, E>>() : null;
+        int rejected = -1;
+        for (int i = 0; i < events.length; i++) {
+            if (!step(events[i], null, applied).isAccepted()) {
+                rejected = i;
+                break;
+            }
+        }
+        notifyApplied(applied);
+        return rejected;
+    }
+
+    public int fireAll(Iterable<E> events) {
+        return fireAll(events.iterator(), false);
+    }
+
+    public int fireAll(Iterable<E> events, boolean deferListeners) {
+        return fireAll(events.iterator(), deferListeners);
+    }
+
+    public int fireAll(Stream<E> events) {
+        return fireAll(events.iterator(), false);
+    }
+
+    public int fireAll(Stream<E> events, boolean deferListeners) {
+        return fireAll(events.iterator(), deferListeners);
+    }
+
+    private int fireAll(Iterator<E> events, boolean deferListeners) {
+        final EventQueue<E> queue = eventQueue;
+        if (queue == null) return fireBatch(events, deferListeners);
+        if (queue.tryDrain()) {
+            final int rejected;
+            try {
+                handleQueued(queue);
+                rejected = fireBatch(events, deferListeners);
+            } catch (Throwable t) {
+                drain(queue, t);
+                throw t;
+            }
+            drain(queue, null);
+            return rejected;
+        }
+        while (events.hasNext()) {
+            offer(queue, events.next(), null);
+        }
+        if (queue.tryDrain()) drain(queue, null);
+        return -1;
+    }
+
+    private int fireBatch(Iterator<E> events, boolean deferListeners) {
+        final List<Transition<T, E>> applied = deferListeners ? new ArrayList<Transition<T, E>>() : null;
+        int rejected = -1;
+        for (int i = 0; events.hasNext(); i++) {
+            if (!step(events.next(), null, applied).isAccepted()) {
+                rejected = i;
+                break;
+            }
+        }
+        notifyApplied(applied);
+        return rejected;
+    }
+
+    /**
+     * Applies a single event without throwing. Listener calls are collected in {@code applied} when it is
+     * not null instead of being made right away.
+     */
+    private TransitionResult step(E event, Object context, List<Transition<T, E>> applied) {
+        final TransitionMetrics<T, E> metrics = this.metrics;
+        if (currentState == null || (stateTransitions == null && definition == null)) {
+            if (metrics != null) metrics.record(currentState, event, null, TransitionResult.NO_TRANSITION);
+            return TransitionResult.NO_TRANSITION;
+        }
+        final boolean timing = metrics != null && metrics.isTiming();
+        final long start = timing ? System.nanoTime() : 0;
+        final T from = currentState;
+        final Transition<T, E> transition = select(from, event, context);
+        if (timing) metrics.recordGuard(System.nanoTime() - start);
+
+        final TransitionResult result = TransitionResult.of(transition, transition != null || hasTransition(from, event));
+
+        if (transitionTracer != null)
+            transitionTracer.trace(from, event, result == TransitionResult.TRANSITIONED ? transition.getTo() : null, result);
+        if (metrics != null)
+            metrics.record(from, event, result == TransitionResult.TRANSITIONED ? transition.getTo() : null, result);
+
+        if (result == TransitionResult.TRANSITIONED) {
+            currentState = transition.getTo();
+            if (applied == null) {
+                notifyListeners(transition, from, event);
+            } else {
+                final boolean resolved = transition.getFrom() == from && transition.getOn() == event;
+                applied.add(resolved ? transition : transition.resolve(from, event));
+            }
+        }
+
+        return result;
+    }
+
+    private void notifyApplied(List<Transition<T, E>> applied) {
+        if (applied == null) return;
+        for (int i = 0; i < applied.size(); i++) {
+            final Transition<T, E> transition = applied.get(i);
+            notifyListeners(transition, transition.getFrom(), transition.getOn());
+        }
+    }
+
+    /**
+     * Adds a listener called on every state change, next to the one set with {@link #setStateChangeListener}.
+     */
+    public void addStateChangeListener(StateChangeListener<T, E> listener) {
+        addStateChangeListener(null, null, null, listener);
+    }
+
+    /**
+     * Adds a listener only called for state changes matching the given from state, to state and event,
+     * null matching anything. With a compiled definition the listeners of each (state, event) pair are
+     * resolved once, so dispatching does not filter per event.
+     */
+    public void addStateChangeListener(T from, T to, E on, StateChangeListener<T, E> listener) {
+        if (stateChangeListeners == null)
+            stateChangeListeners = new StateChangeListeners<T, E>();
+        stateChangeListeners.add(from, to, on, listener);
+    }
+
+    public boolean removeStateChangeListener(StateChangeListener<T, E> listener) {
+        return stateChangeListeners != null && stateChangeListeners.remove(listener);
+    }
+
+    /**
+     * @param from the state the transition was taken from and {@code on} the event it was taken on, which a
+     *             wildcard transition does not hold
+     */
+    private void notifyListeners(final Transition<T, E> transition, final T from, final E on) {
+        if (listenerChannel == null) {
+            invokeListeners(transition, from, on, stateChangeListener);
             return;
         }
 
-        if (transition.getCondition() != null && !transition.getCondition().isMet()) {
-            log.error("Event accepted - Transition Condition Not Met " + transition);
-            throw new TransitionConditionNotMetException("No transitions defined from Current State " + currentState + " for Event " + event);
+        final StateChangeListener<T, E> listener = stateChangeListener;
+        if (!transition.hasSuccessListeners() && listener == null
+                && (stateChangeListeners == null || stateChangeListeners.isEmpty())) return;
+
+        listenerChannel.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                invokeListeners(transition, from, on, listener);
+            }
+        });
+    }
+
+    private void invokeListeners(Transition<T, E> transition, T from, E on, StateChangeListener<T, E> listener) {
+        final TransitionMetrics<T, E> metrics = this.metrics;
+        if (metrics == null || !metrics.isTiming()) {
+            dispatchListeners(transition, from, on, listener);
+            return;
         }
+        final long start = System.nanoTime();
+        dispatchListeners(transition, from, on, listener);
+        metrics.recordListeners(System.nanoTime() - start);
+    }
 
-        currentState = transition.getTo();
+    private void dispatchListeners(Transition<T, E> transition, T from, E on, StateChangeListener<T, E> listener) {
+        transition.notifySuccess(from, transition.getTo(), on);
 
-        if (transition.getOnSuccessListener() != null)
-            transition.getOnSuccessListener().onSuccess(transition.getFrom(), transition.getTo(), transition.getOn());
+        if (listener != null)
+            listener.onStateChanged(from, transition.getTo(), on);
 
-        if (stateChangeListener != null)
-            stateChangeListener.onStateChanged(transition.getFrom(), transition.getTo(), transition.getOn());
+        if (stateChangeListeners != null)
+            stateChangeListeners.dispatch(definition, from, transition.getTo(), on);
     }
 
     public void fire(E event, T currentState) throws TransitionException {
@@ -72,6 +442,138 @@ public class StateMachine<T, E> {
         fire(event);
     }
 
+    /**
+     * Freezes the transitions applied so far into an immutable {@link StateMachineDefinition} which this
+     * machine uses from now on and which can be shared with other machines. The definition resolves a transition
+     * with a single array load, after looking up the interned codes of states and events which are not enums.
+     * Applying a transition after compiling drops the definition until the machine is compiled again.
+     */
+    public StateMachineDefinition<T, E> compile() {
+        definition = freeze();
+        return definition;
+    }
+
+    /**
+     * Compiles the machine like {@link #compile()} after checking the transition graph with
+     * {@link StateMachineDefinition#validate}. The machine is left as it was when any problem is found.
+     *
+     * @param finalStates states which are expected to have no transition out of them
+     * @throws TransitionCreationException listing the problems found
+     */
+    @SafeVarargs
+    public final StateMachineDefinition<T, E> build(T initialState, T... finalStates) throws TransitionCreationException {
+        final StateMachineDefinition<T, E> frozen = freeze();
+        final Set<T> finals = new HashSet<T>();
+        for (T state : finalStates) finals.add(state);
+        final DefinitionReport<T, E> report = frozen.validate(initialState, finals);
+        if (!report.isValid())
+            throw new TransitionCreationException("Invalid state machine definition. " + report);
+        definition = frozen;
+        return definition;
+    }
+
+    private StateMachineDefinition<T, E> freeze() {
+        if (stateTransitions == null) {
+            if (definition != null) return definition;
+            stateTransitions = new LinkedHashMap<E, Map<T, Transition<T, E>[]>>();
+        }
+        return new StateMachineDefinition<T, E>(stateTransitions,
+                wildcardTransitions == null ? new WildcardTransitions<T, E>() : wildcardTransitions,
+                overwrittenTransitions == null ? new ArrayList<Transition<T, E>>() : overwrittenTransitions,
+                parentStates == null ? new HashMap<T, T>() : parentStates,
+                stateTimeouts == null ? new HashMap<T, StateTimeout<T, E>>() : stateTimeouts);
+    }
+
+    /**
+     * Declares that an entity staying in {@code state} for longer than the delay gets {@code event} fired.
+     * Timeouts are armed by a {@link StateMachineRegistry} given a {@link TimingWheel}.
+     */
+    public void timeout(T state, long delay, TimeUnit unit, E event) throws TransitionCreationException {
+        if (state == null || event == null)
+            throw new TransitionCreationException("Timeout state and event should be defined");
+        if (delay <= 0)
+            throw new TransitionCreationException("Timeout delay should be positive");
+        if (stateTransitions == null && definition != null)
+            throw new TransitionCreationException("Timeouts cannot be declared on a state machine created from a definition");
+
+        if (stateTimeouts == null)
+            stateTimeouts = new HashMap<T, StateTimeout<T, E>>();
+        stateTimeouts.put(state, new StateTimeout<T, E>(state, unit.toNanos(delay), event));
+        definition = null;
+    }
+
+    /**
+     * Declares {@code children} as substates of {@code parent}. A substate inherits the transitions of its
+     * ancestors for events it has no accepting transition of its own for, the nearest ancestor first, and
+     * likewise their transitions on any event after its own. A machine which is not compiled walks up the
+     * hierarchy on every lookup; {@link #compile()} copies inherited transitions into each substate instead.
+     */
+    @SafeVarargs
+    public final void substates(T parent, T... children) throws TransitionCreationException {
+        if (parent == null || children == null)
+            throw new TransitionCreationException("Parent and child states should be defined");
+        if (stateTransitions == null && definition != null)
+            throw new TransitionCreationException("Substates cannot be declared on a state machine created from a definition");
+
+        for (T child : children) {
+            if (child == null)
+                throw new TransitionCreationException("Child states should be defined");
+            for (T ancestor = parent; ancestor != null; ancestor = parentOf(ancestor)) {
+                if (ancestor.equals(child))
+                    throw new TransitionCreationException("State " + child + " cannot be a substate of itself");
+            }
+        }
+
+        if (parentStates == null)
+            parentStates = new HashMap<T, T>();
+        for (T child : children) {
+            parentStates.put(child, parent);
+        }
+        definition = null;
+    }
+
+    public boolean isCompiled() {
+        return definition != null;
+    }
+
+    public StateMachineDefinition<T, E> getDefinition() {
+        return definition;
+    }
+
+    private Transition<T, E> select(T state, E event, Object context) {
+        if (definition != null)
+            return definition.select(state, event, context);
+
+        final Map<T, Transition<T, E>[]> transitions = stateTransitions.get(event);
+        Transition<T, E> selected = null;
+        for (T from = state; transitions != null && selected == null && from != null; from = parentOf(from)) {
+            selected = Transition.select(transitions.get(from), state, event, context);
+        }
+        if (selected != null || wildcardTransitions == null || event == null) return selected;
+        return wildcardTransitions.select(state, event, context, parentStates);
+    }
+
+    private T parentOf(T state) {
+        return parentStates == null ? null : parentStates.get(state);
+    }
+
+    private boolean hasTransition(T state, E event) {
+        if (definition != null)
+            return definition.defines(state, event);
+
+        final Map<T, Transition<T, E>[]> transitions = stateTransitions.get(event);
+        for (T from = state; transitions != null && from != null; from = parentOf(from)) {
+            if (transitions.get(from) != null) return true;
+        }
+        return wildcardTransitions != null && event != null && wildcardTransitions.defines(state, event, parentStates);
+    }
+
+    private boolean hasTransitionsFor(E event) {
+        if (definition != null)
+            return definition.hasTransitionsFor(event);
+        return stateTransitions.get(event) != null || (wildcardTransitions != null && wildcardTransitions.definesEvent(event));
+    }
+
     public Transition.TransitionBuilder<T, E> transition() {
         return new Transition.TransitionBuilder<T, E>(this);
     }
@@ -84,20 +586,50 @@ public class StateMachine<T, E> {
 
         validateTransition(tseTransition);
 
+        if (stateTransitions == null && definition != null)
+            throw new TransitionCreationException("Transitions cannot be applied to a state machine created from a definition");
+
+        definition = null;
+
         if (stateTransitions == null) {
-            stateTransitions = new LinkedHashMap<E, Map<T, Transition<T, E>>>();
+            stateTransitions = new LinkedHashMap<E, Map<T, Transition<T, E>[]>>();
         }
 
-        Map<T, Transition<T, E>> transitions = stateTransitions.get(tseTransition.getOn());
+        if (tseTransition.isWildcard()) {
+            if (wildcardTransitions == null)
+                wildcardTransitions = new WildcardTransitions<T, E>();
+            final Transition<T, E> replaced = wildcardTransitions.add(tseTransition);
+            if (replaced != null) recordOverwritten(replaced);
+            return;
+        }
+
+        Map<T, Transition<T, E>[]> transitions = stateTransitions.get(tseTransition.getOn());
 
         if (transitions == null) {
-            transitions = new HashMap<T, Transition<T, E>>();
+            transitions = new HashMap<T, Transition<T, E>[]>();
         }
 
-        transitions.put(tseTransition.getFrom(), tseTransition);
+        final Transition<T, E>[] existing = transitions.get(tseTransition.getFrom());
+        final Transition<T, E>[] updated = Transition.insert(existing, tseTransition);
+        if (existing != null && existing.length == updated.length)
+            recordOverwritten(existing, updated);
+
+        transitions.put(tseTransition.getFrom(), updated);
         stateTransitions.put(tseTransition.getOn(), transitions);
     }
 
+    private void recordOverwritten(Transition<T, E>[] existing, Transition<T, E>[] updated) {
+        for (int i = 0; i < existing.length; i++) {
+            if (existing[i] != updated[i]) recordOverwritten(existing[i]);
+        }
+    }
+
+    private void recordOverwritten(Transition<T, E> replaced) {
+        if (overwrittenTransitions == null)
+            overwrittenTransitions = new ArrayList<Transition<T, E>>();
+        overwrittenTransitions.add(replaced);
+    }
+
     public void apply(Transitions<T, E> tseTransitions) throws TransitionCreationException {
 
         validateAndApplyTransitions(tseTransitions);
@@ -136,11 +668,11 @@ public class StateMachine<T, E> {
 
             if (toAmongLength == 0) {
                 new Transition.TransitionBuilder<T, E>(this).from(fromState).on(onEvent).
-                        ignore().setOnSuccessListener(tseTransitions.getOnSuccessListener()).create();
+                        ignore().setOnSuccessListeners(tseTransitions.getOnSuccessListeners()).create();
             } else {
                 T toState = i < toAmongLength ? tseTransitions.getToAmong()[i] : tseTransitions.getToAmong()[toAmongLength - 1];
                 new Transition.TransitionBuilder<T, E>(this).from(fromState).on(onEvent).
-                        to(toState).setOnSuccessListener(tseTransitions.getOnSuccessListener()).create();
+                        to(toState).setOnSuccessListeners(tseTransitions.getOnSuccessListeners()).create();
             }
         }
 
@@ -164,8 +696,10 @@ public class StateMachine<T, E> {
     }
 
     private void validateTransition(Transition<T, E> tseTransition) throws TransitionCreationException {
-        if (tseTransition.getFrom() == null) throw new TransitionCreationException("From state should be defined");
-        if (tseTransition.getOn() == null) throw new TransitionCreationException("On Event should be defined");
+        if (tseTransition.getFrom() == null && !tseTransition.isAnyState())
+            throw new TransitionCreationException("From state should be defined");
+        if (tseTransition.getOn() == null && !tseTransition.isAnyEvent())
+            throw new TransitionCreationException("On Event should be defined");
         if (!tseTransition.isIgnore() && tseTransition.getTo() == null)
             throw new TransitionCreationException("A transition while its creation should either have \"ignore\" or \"To State\"");
     }
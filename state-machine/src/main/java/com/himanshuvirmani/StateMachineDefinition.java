@@ -0,0 +1,495 @@
+package com.himanshuvirmani;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Frozen transition graph of a {@link StateMachine}. A definition is immutable once created and can be
+ * shared by any number of state machines and threads, each machine holding only its own current state.
+ * It holds copies of the applied transitions, so changing a transition afterwards does not affect it.
+ * <p>
+ * Definitions are created by {@link StateMachine#compile()} after the transitions have been applied
+ * through the {@code transition()} and {@code transitions()} builders.
+ */
+public final class StateMachineDefinition<T, E> {
+
+    /** Result code of {@link #nextOrdinal(int, int)} when the transition is ignored. */
+    public static final int IGNORED = -1;
+
+    /** Result code of {@link #nextOrdinal(int, int)} when no transition is defined. */
+    public static final int NO_TRANSITION = -2;
+
+    /** Result code of {@link #nextOrdinal(int, int)} when the transition condition is not met. */
+    public static final int CONDITION_NOT_MET = -3;
+
+    private final Map<E, Map<T, Transition<T, E>[]>> stateTransitions;
+
+    private final TransitionTable<T, E> transitionTable;
+
+    private final List<Transition<T, E>> overwrittenTransitions;
+
+    private final List<Transition<T, E>> shadowedTransitions;
+
+    private final Map<T, T> parentStates;
+
+    private final WildcardTransitions<T, E> wildcards;
+
+    private final Map<T, StateTimeout<T, E>> stateTimeouts;
+
+    /**
+     * Timeouts indexed by state ordinal, null when no state has one or the definition has no table.
+     */
+    private final StateTimeout<T, E>[] timeoutsByOrdinal;
+
+    /**
+     * @param parentStates parent of each substate, whose transitions are copied to the substate so that
+     *                     lookups never walk the hierarchy
+     */
+    StateMachineDefinition(Map<E, Map<T, Transition<T, E>[]>> stateTransitions, WildcardTransitions<T, E> wildcards,
+                           List<Transition<T, E>> overwrittenTransitions, Map<T, T> parentStates,
+                           Map<T, StateTimeout<T, E>> stateTimeouts) {
+        final LinkedHashMap<E, Map<T, Transition<T, E>[]>> copy = new LinkedHashMap<E, Map<T, Transition<T, E>[]>>();
+        final List<Transition<T, E>> shadowed = new ArrayList<Transition<T, E>>();
+        for (Map.Entry<E, Map<T, Transition<T, E>[]>> entry : stateTransitions.entrySet()) {
+            final Map<T, Transition<T, E>[]> transitions = copyAll(entry.getValue());
+            for (Transition<T, E>[] candidates : transitions.values()) Transition.addShadowed(candidates, shadowed);
+            copy.put(entry.getKey(), Collections.unmodifiableMap(inherit(transitions, parentStates)));
+        }
+        final WildcardTransitions<T, E> wildcardsCopy = wildcards.copy();
+        wildcardsCopy.addShadowed(shadowed);
+        this.shadowedTransitions = Collections.unmodifiableList(shadowed);
+        this.parentStates = Collections.unmodifiableMap(new HashMap<T, T>(parentStates));
+        this.stateTransitions = Collections.unmodifiableMap(copy);
+        this.wildcards = wildcardsCopy.inherit(parentStates);
+        this.transitionTable = TransitionTable.compile(copy, this.wildcards, otherStates(parentStates, stateTimeouts),
+                otherEvents(stateTimeouts));
+        this.stateTimeouts = Collections.unmodifiableMap(new HashMap<T, StateTimeout<T, E>>(stateTimeouts));
+        this.timeoutsByOrdinal = timeoutsByOrdinal(transitionTable, stateTimeouts);
+        this.overwrittenTransitions = Collections.unmodifiableList(new ArrayList<Transition<T, E>>(overwrittenTransitions));
+    }
+
+    private static <T, E> Map<T, Transition<T, E>[]> copyAll(Map<T, Transition<T, E>[]> transitions) {
+        final HashMap<T, Transition<T, E>[]> copy = new HashMap<T, Transition<T, E>[]>();
+        for (Map.Entry<T, Transition<T, E>[]> entry : transitions.entrySet()) {
+            copy.put(entry.getKey(), Transition.copyAll(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Adds to the transitions of each substate for an event those of its ancestors, nearest first, after its own.
+     */
+    private static <T, E> Map<T, Transition<T, E>[]> inherit(Map<T, Transition<T, E>[]> transitions, Map<T, T> parentStates) {
+        final HashMap<T, Transition<T, E>[]> flat = new HashMap<T, Transition<T, E>[]>(transitions);
+        for (T state : parentStates.keySet()) {
+            Transition<T, E>[] candidates = transitions.get(state);
+            for (T parent = parentStates.get(state); parent != null; parent = parentStates.get(parent)) {
+                final Transition<T, E>[] inherited = transitions.get(parent);
+                if (inherited != null) candidates = Transition.inherit(candidates, inherited, state);
+            }
+            if (candidates != null) flat.put(state, candidates);
+        }
+        return flat;
+    }
+
+    /**
+     * @return states which may not appear in any transition but should still get a code when interned
+     */
+    private static <T, E> List<T> otherStates(Map<T, T> parentStates, Map<T, StateTimeout<T, E>> stateTimeouts) {
+        final List<T> states = new ArrayList<T>(parentStates.keySet());
+        states.addAll(parentStates.values());
+        states.addAll(stateTimeouts.keySet());
+        return states;
+    }
+
+    private static <T, E> List<E> otherEvents(Map<T, StateTimeout<T, E>> stateTimeouts) {
+        final List<E> events = new ArrayList<E>();
+        for (StateTimeout<T, E> timeout : stateTimeouts.values()) events.add(timeout.getEvent());
+        return events;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, E> StateTimeout<T, E>[] timeoutsByOrdinal(TransitionTable<T, E> table, Map<T, StateTimeout<T, E>> timeouts) {
+        if (table == null || timeouts.isEmpty()) return null;
+        final StateTimeout<T, E>[] byOrdinal = (StateTimeout<T, E>[]) new StateTimeout<?, ?>[table.getStateCount()];
+        for (StateTimeout<T, E> timeout : timeouts.values()) {
+            if (!table.hasState(timeout.getState()) || !table.hasEvent(timeout.getEvent()))
+                throw new IllegalArgumentException("Timeout of " + timeout.getState() + " does not match the states and events of the definition");
+            byOrdinal[table.stateCode(timeout.getState())] = timeout;
+        }
+        return byOrdinal;
+    }
+
+    /**
+     * @return the timeout declared for the state, or null
+     */
+    public StateTimeout<T, E> getTimeout(T state) {
+        return stateTimeouts.get(state);
+    }
+
+    StateTimeout<T, E> timeoutOf(int stateOrdinal) {
+        return timeoutsByOrdinal == null ? null : timeoutsByOrdinal[stateOrdinal];
+    }
+
+    /**
+     * @return the parent declared with {@link StateMachine#substates}, or null for a top level state
+     */
+    public T getParentState(T state) {
+        return parentStates.get(state);
+    }
+
+    /**
+     * Analyses the transition graph starting from {@code initialState}. States are all constants of the enum
+     * for enum states, otherwise the states appearing in transitions. Parent states which are never entered
+     * themselves are not reported as unreachable.
+     *
+     * @param finalStates states which are expected to have no transition out of them
+     */
+    @SafeVarargs
+    public final DefinitionReport<T, E> validate(T initialState, T... finalStates) {
+        final Set<T> finals = new HashSet<T>();
+        for (T state : finalStates) finals.add(state);
+        return validate(initialState, finals);
+    }
+
+    DefinitionReport<T, E> validate(T initialState, Set<T> finals) {
+        final Set<T> states = new LinkedHashSet<T>();
+        final Set<E> events = new LinkedHashSet<E>();
+        final Map<T, List<Transition<T, E>>> outgoing = new HashMap<T, List<Transition<T, E>>>();
+
+        if (transitionTable != null) {
+            for (int i = 0; i < transitionTable.getStateCount(); i++) states.add(transitionTable.getState(i));
+            for (int i = 0; i < transitionTable.getEventCount(); i++) events.add(transitionTable.getEvent(i));
+        }
+        states.add(initialState);
+        for (Map.Entry<E, Map<T, Transition<T, E>[]>> entry : stateTransitions.entrySet()) {
+            events.add(entry.getKey());
+            for (Transition<T, E>[] candidates : entry.getValue().values()) {
+                for (Transition<T, E> transition : candidates) {
+                    states.add(transition.getFrom());
+                    if (transition.isIgnore() || transition.getTo() == null) continue;
+                    states.add(transition.getTo());
+                    List<Transition<T, E>> out = outgoing.get(transition.getFrom());
+                    if (out == null) outgoing.put(transition.getFrom(), out = new ArrayList<Transition<T, E>>());
+                    out.add(transition);
+                }
+            }
+        }
+
+        final List<Transition<T, E>> wildcardTransitions = wildcards.all();
+        for (Transition<T, E> transition : wildcardTransitions) {
+            if (!transition.isAnyState()) states.add(transition.getFrom());
+            if (!transition.isAnyEvent()) events.add(transition.getOn());
+            if (!transition.isIgnore() && transition.getTo() != null) states.add(transition.getTo());
+        }
+
+        final Set<T> reachable = new HashSet<T>();
+        final Set<E> fired = new HashSet<E>();
+        final ArrayDeque<T> pending = new ArrayDeque<T>();
+        reachable.add(initialState);
+        pending.add(initialState);
+        while (!pending.isEmpty()) {
+            final T state = pending.poll();
+            final List<Transition<T, E>> out = outgoing.get(state);
+            if (out != null) {
+                for (Transition<T, E> transition : out) {
+                    fired.add(transition.getOn());
+                    if (reachable.add(transition.getTo())) pending.add(transition.getTo());
+                }
+            }
+            for (Transition<T, E> transition : wildcardTransitions) {
+                if (transition.isIgnore() || transition.getTo() == null) continue;
+                if (!transition.isAnyState() && !transition.getFrom().equals(state)) continue;
+                if (transition.isAnyEvent()) fired.addAll(events);
+                else fired.add(transition.getOn());
+                if (reachable.add(transition.getTo())) pending.add(transition.getTo());
+            }
+        }
+
+        final List<T> unreachable = new ArrayList<T>();
+        final List<T> deadEnds = new ArrayList<T>();
+        for (T state : states) {
+            if (reachable.contains(state)) {
+                if (!finals.contains(state) && !leaves(state, outgoing.get(state)) && !leaves(state, wildcardTransitions))
+                    deadEnds.add(state);
+            } else if (!parentStates.containsValue(state)) {
+                unreachable.add(state);
+            }
+        }
+        final List<E> unused = new ArrayList<E>();
+        for (E event : events) {
+            if (!fired.contains(event)) unused.add(event);
+        }
+        return new DefinitionReport<T, E>(unreachable, deadEnds, unused, overwrittenTransitions, shadowedTransitions);
+    }
+
+    private static <T, E> boolean leaves(T state, List<Transition<T, E>> outgoing) {
+        if (outgoing == null) return false;
+        for (Transition<T, E> transition : outgoing) {
+            if (transition.isIgnore() || transition.getTo() == null) continue;
+            if (!transition.isAnyState() && !transition.getFrom().equals(state)) continue;
+            if (!transition.getTo().equals(state)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the event against the given state without changing anything.
+     * Safe to call concurrently from any number of threads as long as the transition conditions are.
+     */
+    public TransitionResult evaluate(T current, E event) {
+        return evaluate(current, event, null);
+    }
+
+    /**
+     * Same as {@link #evaluate(Object, Object)}, passing {@code context} to the transition's {@link Guard}.
+     */
+    public TransitionResult evaluate(T current, E event, Object context) {
+        return resultOf(select(current, event, context), current, event);
+    }
+
+    /**
+     * Pure transition function.
+     *
+     * @return the state the event leads to, {@code current} itself when the transition is ignored,
+     * or null when there is no transition or its condition is not met.
+     */
+    public T next(T current, E event) {
+        return next(current, event, null);
+    }
+
+    /**
+     * Same as {@link #next(Object, Object)}, passing {@code context} to the transition's {@link Guard}.
+     */
+    public T next(T current, E event, Object context) {
+        final Transition<T, E> transition = select(current, event, context);
+        switch (resultOf(transition, current, event)) {
+            case TRANSITIONED:
+                return transition.getTo();
+            case IGNORED:
+                return current;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Pure transition function over state and event codes: enum ordinals, or the codes interned for other
+     * values, see {@link #ordinalOfState}. Only available when {@link #hasTable()} is true.
+     *
+     * @return the ordinal of the state the event leads to, or one of {@link #IGNORED},
+     * {@link #NO_TRANSITION} and {@link #CONDITION_NOT_MET}.
+     */
+    public int nextOrdinal(int stateOrdinal, int eventOrdinal) {
+        return table().next(stateOrdinal, eventOrdinal, null);
+    }
+
+    /**
+     * Same as {@link #nextOrdinal(int, int)}, passing {@code context} to the transition's {@link Guard}.
+     */
+    public int nextOrdinal(int stateOrdinal, int eventOrdinal, Object context) {
+        return table().next(stateOrdinal, eventOrdinal, context);
+    }
+
+    /**
+     * Applies the event to every entity of a column of state ordinals, writing the next state ordinals in place.
+     * Entries whose event is ignored or rejected keep their state. Listeners are not called. Large columns
+     * are processed in parallel chunks, so transition conditions must be thread safe.
+     *
+     * @return the number of entries that changed state, self transitions excluded
+     */
+    public int fireAll(int[] stateOrdinals, E event) {
+        return new ColumnTransition(table(), stateOrdinals, null, null, null,
+                ordinalOfEvent(event), 0, stateOrdinals.length).invoke();
+    }
+
+    /**
+     * Same as {@link #fireAll(int[], Object)} for ordinals stored as unsigned bytes.
+     */
+    public int fireAll(byte[] stateOrdinals, E event) {
+        return new ColumnTransition(byteTable(), null, stateOrdinals, null, null,
+                ordinalOfEvent(event), 0, stateOrdinals.length).invoke();
+    }
+
+    /**
+     * Applies {@code eventOrdinals[i]} to {@code stateOrdinals[i]} for every entry, writing the next state
+     * ordinals in place. Both columns must have the same length.
+     *
+     * @return the number of entries that changed state, self transitions excluded
+     */
+    public int fireAll(int[] stateOrdinals, int[] eventOrdinals) {
+        checkColumns(stateOrdinals.length, eventOrdinals.length);
+        return new ColumnTransition(table(), stateOrdinals, null, eventOrdinals, null,
+                0, 0, stateOrdinals.length).invoke();
+    }
+
+    /**
+     * Same as {@link #fireAll(int[], int[])} for ordinals stored as unsigned bytes.
+     */
+    public int fireAll(byte[] stateOrdinals, byte[] eventOrdinals) {
+        checkColumns(stateOrdinals.length, eventOrdinals.length);
+        return new ColumnTransition(byteTable(), null, stateOrdinals, null, eventOrdinals,
+                0, 0, stateOrdinals.length).invoke();
+    }
+
+    private static void checkColumns(int stateLength, int eventLength) {
+        if (stateLength != eventLength)
+            throw new IllegalArgumentException("State and event columns should have the same length");
+    }
+
+    private TransitionTable<T, E> byteTable() {
+        final TransitionTable<T, E> table = table();
+        if (table.getStateCount() > 256 || table.getEventCount() > 256)
+            throw new IllegalStateException("Byte columns need at most 256 states and events");
+        return table;
+    }
+
+    /**
+     * @return the ordinal of an enum state, or the code interned for another one when the definition was created
+     * @throws IllegalArgumentException when the state appears neither in transitions, substates nor timeouts
+     */
+    public int ordinalOfState(T state) {
+        final int code = table().stateCode(state);
+        if (code < 0)
+            throw new IllegalArgumentException("State " + state + " is not part of the definition");
+        return code;
+    }
+
+    /**
+     * @return the ordinal of an enum event, or the code interned for another one when the definition was created
+     * @throws IllegalArgumentException when the event appears neither in transitions nor timeouts
+     */
+    public int ordinalOfEvent(E event) {
+        final int code = table().eventCode(event);
+        if (code < 0)
+            throw new IllegalArgumentException("Event " + event + " is not part of the definition");
+        return code;
+    }
+
+    /**
+     * @return the code of the state, or -1 when it has none
+     */
+    int stateCode(T state) {
+        return transitionTable == null || state == null ? -1 : transitionTable.stateCode(state);
+    }
+
+    int eventCode(E event) {
+        return transitionTable == null || event == null ? -1 : transitionTable.eventCode(event);
+    }
+
+    public T getState(int ordinal) {
+        return table().getState(ordinal);
+    }
+
+    public E getEvent(int ordinal) {
+        return table().getEvent(ordinal);
+    }
+
+    /**
+     * @return a hash of the states, events and transitions of the definition, equal across JVMs for
+     * definitions built the same way. Used to check that persisted state ordinals still mean the same.
+     */
+    public long getFingerprint() {
+        return table().fingerprint();
+    }
+
+    public int getStateCount() {
+        return table().getStateCount();
+    }
+
+    public int getEventCount() {
+        return table().getEventCount();
+    }
+
+    private TransitionTable<T, E> table() {
+        if (transitionTable == null)
+            throw new IllegalStateException("Ordinal lookups need a definition with transitions");
+        return transitionTable;
+    }
+
+    /**
+     * @return the highest priority transition defined from the state on the event, regardless of its condition
+     */
+    Transition<T, E> getTransition(T state, E event) {
+        if (transitionTable != null && event != null && state != null)
+            return transitionTable.get(state, event);
+
+        final Map<T, Transition<T, E>[]> transitions = stateTransitions.get(event);
+        final Transition<T, E>[] candidates = transitions == null ? null : transitions.get(state);
+        return candidates == null ? null : candidates[0];
+    }
+
+    Transition<T, E> getTransition(int stateOrdinal, int eventOrdinal) {
+        return table().get(stateOrdinal, eventOrdinal);
+    }
+
+    boolean hasSingleTarget(int stateOrdinal, int eventOrdinal) {
+        return table().hasSingleTarget(stateOrdinal, eventOrdinal);
+    }
+
+    /**
+     * @return the first transition in priority order accepting the event, or null when none does
+     */
+    Transition<T, E> select(T state, E event, Object context) {
+        if (transitionTable != null && event != null && state != null)
+            return transitionTable.select(state, event, context);
+
+        final Map<T, Transition<T, E>[]> transitions = stateTransitions.get(event);
+        final Transition<T, E> selected = transitions == null ? null : Transition.select(transitions.get(state), state, event, context);
+        if (selected != null || state == null || event == null) return selected;
+        return wildcards.select(state, event, context);
+    }
+
+    Transition<T, E> select(int stateOrdinal, int eventOrdinal, Object context) {
+        return table().select(stateOrdinal, eventOrdinal, context);
+    }
+
+    TransitionResult resultOf(Transition<T, E> selected, T state, E event) {
+        return TransitionResult.of(selected, selected != null || defines(state, event));
+    }
+
+    /**
+     * @return whether any transition, wildcards included, is defined from the state on the event
+     */
+    boolean defines(T state, E event) {
+        if (transitionTable != null && event != null && state != null)
+            return transitionTable.defines(state, event);
+        return getTransition(state, event) != null || (state != null && event != null && wildcards.defines(state, event));
+    }
+
+    /**
+     * @return index of the (state, event) cell of the table, {@code eventOrdinal * stateCount + stateOrdinal},
+     * or -1 when the state or event has no code
+     */
+    int cellOf(T state, E event) {
+        return transitionTable.cell(state, event);
+    }
+
+    boolean hasTransitionsFor(E event) {
+        return stateTransitions.containsKey(event) || wildcards.definesEvent(event);
+    }
+
+    /**
+     * @return true when lookups are served by the dense table rather than by maps, which is the case for every
+     * definition having transitions: enum states and events are coded by ordinal, others by interned codes.
+     */
+    public boolean hasTable() {
+        return transitionTable != null;
+    }
+
+    /**
+     * @return true when the definition has a table whose states and events are constants of an enum, coded by
+     * their ordinals, rather than interned values
+     */
+    public boolean isEnumTable() {
+        return transitionTable != null && !transitionTable.isInterned();
+    }
+}
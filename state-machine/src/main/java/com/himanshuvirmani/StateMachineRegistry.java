@@ -0,0 +1,309 @@
+package com.himanshuvirmani;
+
+import com.himanshuvirmani.exceptions.TransitionConditionNotMetException;
+import com.himanshuvirmani.exceptions.TransitionException;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread safe registry of entities driven by one shared {@link StateMachineDefinition}. Each entity only stores
+ * the ordinal of its current state, see {@link StateMachineDefinition#ordinalOfState}. Events for the same entity are serialized
+ * by a striped lock, which is also held while listeners are called, while entities on different stripes are
+ * handled in parallel.
+ * <p>
+ * Listeners may fire events on their own entity, which are handled on top of the current one, but must not
+ * fire events on other entities of the registry: two listeners doing so on different stripes would deadlock.
+ * Hand such events off to another thread instead, for example through a {@link PartitionedExecutor}.
+ */
+public class StateMachineRegistry<K, T, E> {
+
+    private final StateMachineDefinition<T, E> definition;
+
+    private final ConcurrentHashMap<K, Slot> slots = new ConcurrentHashMap<K, Slot>();
+
+    private final Object[] locks;
+
+    private final int mask;
+
+    @Getter
+    @Setter
+    private volatile EntityStateChangeListener<K, T, E> stateChangeListener;
+
+    /**
+     * Wheel arming the {@link StateTimeout}s of the definition whenever an entity enters a state having one.
+     * Entities already in such a state when the wheel is set are armed on their next transition.
+     */
+    @Getter
+    @Setter
+    private volatile TimingWheel timingWheel;
+
+    /**
+     * Counters and latencies of the events fired on the entities, none by default.
+     */
+    @Getter
+    @Setter
+    private volatile TransitionMetrics<T, E> metrics;
+
+    public StateMachineRegistry(StateMachineDefinition<T, E> definition) {
+        this(definition, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes number of locks events are serialized on, rounded up to a power of two
+     */
+    public StateMachineRegistry(StateMachineDefinition<T, E> definition, int stripes) {
+        if (!definition.hasTable())
+            throw new IllegalArgumentException("Registry needs a definition with transitions");
+        this.definition = definition;
+
+        int size = 1;
+        while (size < stripes) size <<= 1;
+        locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
+        }
+        mask = size - 1;
+    }
+
+    public StateMachineDefinition<T, E> getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Registers an entity in the given state, replacing the state of an already registered one.
+     */
+    public void register(K id, T state) {
+        final int ordinal = definition.ordinalOfState(state);
+        while (true) {
+            Slot slot = slots.get(id);
+            if (slot == null) {
+                final Slot created = new Slot(ordinal);
+                slot = slots.putIfAbsent(id, created);
+                if (slot == null) {
+                    if (timingWheel != null) {
+                        synchronized (lockFor(id)) {
+                            if (slots.get(id) == created) arm(id, created);
+                        }
+                    }
+                    return;
+                }
+            }
+            synchronized (lockFor(id)) {
+                // the entity may have been removed since the slot was looked up, its state would then be lost
+                if (slots.get(id) != slot) continue;
+                slot.state = ordinal;
+                arm(id, slot);
+                return;
+            }
+        }
+    }
+
+    public boolean remove(K id) {
+        final Slot slot = slots.remove(id);
+        if (slot == null) return false;
+        synchronized (lockFor(id)) {
+            if (slot.timeout != null) slot.timeout.cancel();
+        }
+        return true;
+    }
+
+    public boolean contains(K id) {
+        return slots.containsKey(id);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return the current state of the entity, or null when it is not registered
+     */
+    public T getState(K id) {
+        final Slot slot = slots.get(id);
+        if (slot == null) return null;
+        synchronized (lockFor(id)) {
+            return definition.getState(slot.state);
+        }
+    }
+
+    public void fire(K id, E event) throws TransitionException {
+        fire(id, event, null);
+    }
+
+    /**
+     * Fires the event on the entity passing {@code context} to the {@link Guard} of the transition.
+     */
+    public void fire(K id, E event, Object context) throws TransitionException {
+        switch (tryFire(id, event, context)) {
+            case CONDITION_NOT_MET:
+                throw new TransitionConditionNotMetException("Transition condition not met for " + id + " on Event " + event);
+            case NO_TRANSITION:
+                if (!slots.containsKey(id))
+                    throw new TransitionException("No state machine registered for " + id);
+                throw new TransitionException("No transitions defined from Current State of " + id + " for Event " + event);
+        }
+    }
+
+    /**
+     * Fires the event on the entity without throwing for ordinary outcomes.
+     *
+     * @return how the event was handled, {@link TransitionResult#NO_TRANSITION} when the entity is not registered
+     */
+    public TransitionResult tryFire(K id, E event) {
+        return tryFire(id, event, null);
+    }
+
+    /**
+     * Same as {@link #tryFire(Object, Object)}, passing {@code context} to the {@link Guard} of the transition.
+     */
+    public TransitionResult tryFire(K id, E event, Object context) {
+        final TransitionMetrics<T, E> metrics = this.metrics;
+        final int eventOrdinal = event == null ? -1 : definition.eventCode(event);
+        final boolean timing = metrics != null && metrics.isTiming();
+
+        while (true) {
+            final Slot slot = slots.get(id);
+            if (slot == null || event == null) {
+                if (metrics != null) metrics.record(null, event, null, TransitionResult.NO_TRANSITION);
+                return TransitionResult.NO_TRANSITION;
+            }
+            synchronized (lockFor(id)) {
+                // the entity may have been removed and registered again since the slot was looked up
+                if (slots.get(id) != slot) continue;
+                return fire(id, slot, event, eventOrdinal, context, metrics, timing);
+            }
+        }
+    }
+
+    /**
+     * Applies the event to the entity's slot. Called with the entity's stripe lock held.
+     */
+    private TransitionResult fire(K id, Slot slot, E event, int eventOrdinal, Object context,
+                                  TransitionMetrics<T, E> metrics, boolean timing) {
+        final T from = definition.getState(slot.state);
+        long start = timing ? System.nanoTime() : 0;
+        final Transition<T, E> transition = eventOrdinal < 0 ? definition.select(from, event, context)
+                : definition.select(slot.state, eventOrdinal, context);
+        if (timing) metrics.recordGuard(System.nanoTime() - start);
+
+        final TransitionResult result = definition.resultOf(transition, from, event);
+        if (metrics != null)
+            metrics.record(from, event, result == TransitionResult.TRANSITIONED ? transition.getTo() : null, result);
+        if (result != TransitionResult.TRANSITIONED) return result;
+
+        slot.state = definition.ordinalOfState(transition.getTo());
+        arm(id, slot);
+
+        if (timing) start = System.nanoTime();
+        transition.notifySuccess(from, transition.getTo(), event);
+
+        final EntityStateChangeListener<K, T, E> listener = stateChangeListener;
+        if (listener != null)
+            listener.onStateChanged(id, from, transition.getTo(), event);
+        if (timing) metrics.recordListeners(System.nanoTime() - start);
+
+        return result;
+    }
+
+    /**
+     * Registers an entity by state ordinal, replacing the state of an already registered one.
+     */
+    void registerOrdinal(K id, int ordinal) {
+        register(id, definition.getState(ordinal));
+    }
+
+    /**
+     * Calls the visitor with the state ordinal of every registered entity, each read under its stripe lock.
+     */
+    void forEachOrdinal(OrdinalVisitor<K> visitor) throws IOException {
+        for (Map.Entry<K, Slot> entry : slots.entrySet()) {
+            final int ordinal;
+            synchronized (lockFor(entry.getKey())) {
+                ordinal = entry.getValue().state;
+            }
+            visitor.visit(entry.getKey(), ordinal);
+        }
+    }
+
+    interface OrdinalVisitor<K> {
+        void visit(K id, int ordinal) throws IOException;
+    }
+
+    /**
+     * Cancels the timeout of the state the entity left and schedules the one of the state it entered, if any.
+     * Called with the entity's stripe lock held.
+     */
+    private void arm(K id, Slot slot) {
+        slot.entry++;
+        if (slot.timeout != null) {
+            slot.timeout.cancel();
+            slot.timeout = null;
+        }
+        final TimingWheel wheel = timingWheel;
+        if (wheel == null) return;
+        final StateTimeout<T, E> timeout = definition.timeoutOf(slot.state);
+        if (timeout == null) return;
+        slot.timeout = wheel.schedule(new TimeoutTask(id, slot, slot.entry, timeout.getEvent()),
+                timeout.getDelayNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private Object lockFor(K id) {
+        final int h = id.hashCode();
+        return locks[(h ^ (h >>> 16)) & mask];
+    }
+
+    public interface EntityStateChangeListener<K, T, E> {
+        void onStateChanged(K id, T from, T to, E on);
+    }
+
+    /**
+     * Fires the timeout event when the entity is still in the state entered when the timeout was armed.
+     */
+    private final class TimeoutTask implements Runnable {
+
+        private final K id;
+
+        private final Slot slot;
+
+        private final int entry;
+
+        private final E event;
+
+        private TimeoutTask(K id, Slot slot, int entry, E event) {
+            this.id = id;
+            this.slot = slot;
+            this.entry = entry;
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lockFor(id)) {
+                if (slot.entry != entry || slots.get(id) != slot) return;
+                tryFire(id, event);
+            }
+        }
+    }
+
+    /**
+     * Ordinal of an entity's current state, guarded by the entity's stripe lock.
+     */
+    private static final class Slot {
+
+        private int state;
+
+        /** Incremented every time the entity enters a state, so that a stale timeout does not fire. */
+        private int entry;
+
+        private TimingWheel.Timeout timeout;
+
+        private Slot(int state) {
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.himanshuvirmani;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact binary snapshots of the current states of machines sharing a {@link StateMachineDefinition}.
+ * <p>
+ * A snapshot starts with a header holding the fingerprint of the definition, followed by blocks of state
+ * ordinals stored in 1, 2 or 4 bytes depending on the number of states, and ends with an empty block.
+ * Registry snapshots store the entity id in front of each ordinal. Restoring fails with an {@link IOException}
+ * when the snapshot was taken with a definition having another fingerprint.
+ */
+public final class StateSnapshot {
+
+    private static final int MAGIC = 0x534d5331;
+
+    private static final byte VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 17;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final KeyCodec<Long> LONG_KEYS = new KeyCodec<Long>() {
+        @Override
+        public int size(Long key) {
+            return 8;
+        }
+
+        @Override
+        public void write(Long key, ByteBuffer buffer) {
+            buffer.putLong(key);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int size) {
+            return buffer.getLong();
+        }
+    };
+
+    public static final KeyCodec<String> STRING_KEYS = new KeyCodec<String>() {
+        @Override
+        public int size(String key) {
+            return key.getBytes(UTF_8).length;
+        }
+
+        @Override
+        public void write(String key, ByteBuffer buffer) {
+            buffer.put(key.getBytes(UTF_8));
+        }
+
+        @Override
+        public String read(ByteBuffer buffer, int size) {
+            final byte[] bytes = new byte[size];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    };
+
+    private StateSnapshot() {
+    }
+
+    /**
+     * Writes the current state of each machine in iteration order. Machines without a current state are
+     * restored without one.
+     */
+    public static <T, E> void write(StateMachineDefinition<T, E> definition, Collection<? extends StateMachine<T, E>> machines,
+                                    WritableByteChannel channel) throws IOException {
+        final Output output = new Output(channel, definition, false);
+        for (StateMachine<T, E> machine : machines) {
+            final T state = machine.getCurrentState();
+            output.ordinal(state == null ? -1 : definition.ordinalOfState(state));
+        }
+        output.finish();
+    }
+
+    /**
+     * Writes a column of state ordinals as used by {@link StateMachineDefinition#fireAll(int[], Object)},
+     * negative ordinals standing for machines without a current state and read back as -1.
+     *
+     * @throws IllegalArgumentException when an ordinal is not one of a state of the definition
+     */
+    public static <T, E> void write(StateMachineDefinition<T, E> definition, int[] stateOrdinals,
+                                    WritableByteChannel channel) throws IOException {
+        final Output output = new Output(channel, definition, false);
+        for (int ordinal : stateOrdinals) {
+            output.ordinal(ordinal);
+        }
+        output.finish();
+    }
+
+    /**
+     * Writes the id and state of every entity of the registry.
+     */
+    public static <K, T, E> void write(StateMachineRegistry<K, T, E> registry, final KeyCodec<K> codec,
+                                       WritableByteChannel channel) throws IOException {
+        final Output output = new Output(channel, registry.getDefinition(), true);
+        registry.forEachOrdinal(new StateMachineRegistry.OrdinalVisitor<K>() {
+            @Override
+            public void visit(K id, int ordinal) throws IOException {
+                output.record(codec, id, ordinal);
+            }
+        });
+        output.finish();
+    }
+
+    public static <T, E> int[] readOrdinals(StateMachineDefinition<T, E> definition, ReadableByteChannel channel) throws IOException {
+        return readOrdinals(new Input(channel, ByteBuffer.allocate(BUFFER_SIZE)), definition);
+    }
+
+    public static <T, E> int[] readOrdinals(StateMachineDefinition<T, E> definition, ByteBuffer buffer) throws IOException {
+        return readOrdinals(new Input(null, buffer), definition);
+    }
+
+    /**
+     * Restores machines backed by the definition in the order they were written.
+     */
+    public static <T, E> List<StateMachine<T, E>> readMachines(StateMachineDefinition<T, E> definition,
+                                                                ReadableByteChannel channel) throws IOException {
+        final int[] ordinals = readOrdinals(definition, channel);
+        final List<StateMachine<T, E>> machines = new ArrayList<StateMachine<T, E>>(ordinals.length);
+        for (int ordinal : ordinals) {
+            machines.add(new StateMachine<T, E>(definition, ordinal < 0 ? null : definition.getState(ordinal)));
+        }
+        return machines;
+    }
+
+    /**
+     * Registers every entity of the snapshot in the registry, replacing the state of already registered ones.
+     *
+     * @return the number of entities read
+     */
+    public static <K, T, E> int read(StateMachineRegistry<K, T, E> registry, KeyCodec<K> codec,
+                                     ReadableByteChannel channel) throws IOException {
+        return read(new Input(channel, ByteBuffer.allocate(BUFFER_SIZE)), registry, codec);
+    }
+
+    public static <K, T, E> int read(StateMachineRegistry<K, T, E> registry, KeyCodec<K> codec,
+                                     ByteBuffer buffer) throws IOException {
+        return read(new Input(null, buffer), registry, codec);
+    }
+
+    private static int[] readOrdinals(Input input, StateMachineDefinition<?, ?> definition) throws IOException {
+        final int width = input.header(definition, false);
+        int[] ordinals = new int[1024];
+        int size = 0;
+        for (int count = input.blockCount(); count > 0; count = input.blockCount()) {
+            if (size + count > ordinals.length)
+                ordinals = Arrays.copyOf(ordinals, Math.max(size + count, ordinals.length * 2));
+            for (int i = 0; i < count; i++) {
+                ordinals[size++] = input.ordinal(width);
+            }
+        }
+        return Arrays.copyOf(ordinals, size);
+    }
+
+    private static <K, T, E> int read(Input input, StateMachineRegistry<K, T, E> registry, KeyCodec<K> codec) throws IOException {
+        final int width = input.header(registry.getDefinition(), true);
+        int read = 0;
+        for (int count = input.blockCount(); count > 0; count = input.blockCount()) {
+            for (int i = 0; i < count; i++) {
+                input.require(2);
+                final int keySize = input.buffer.getShort() & 0xFFFF;
+                input.require(keySize + width);
+                final K id = codec.read(input.buffer, keySize);
+                final int ordinal = input.ordinal(width);
+                if (ordinal < 0)
+                    throw new IOException("Entity " + id + " has no state in the snapshot");
+                registry.registerOrdinal(id, ordinal);
+                read++;
+            }
+        }
+        return read;
+    }
+
+    private static int width(int stateCount) {
+        if (stateCount < 0xFF) return 1;
+        if (stateCount < 0xFFFF) return 2;
+        return 4;
+    }
+
+    /**
+     * Writes and reads entity ids of registry snapshots. Ids are stored with their size in front, which
+     * should not exceed 65535 bytes.
+     */
+    public interface KeyCodec<K> {
+
+        int size(K key);
+
+        void write(K key, ByteBuffer buffer);
+
+        K read(ByteBuffer buffer, int size);
+    }
+
+    private static final class Output {
+
+        private final WritableByteChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final int width;
+
+        private final int stateCount;
+
+        private int blockStart = -1;
+
+        private int blockCount;
+
+        private Output(WritableByteChannel channel, StateMachineDefinition<?, ?> definition, boolean keyed) {
+            this.channel = channel;
+            this.width = width(definition.getStateCount());
+            this.stateCount = definition.getStateCount();
+            buffer.putInt(MAGIC).put(VERSION).put((byte) width).put((byte) (keyed ? 1 : 0))
+                    .putLong(definition.getFingerprint()).putInt(definition.getStateCount());
+        }
+
+        private void ordinal(int ordinal) throws IOException {
+            ensure(width);
+            putOrdinal(ordinal);
+            blockCount++;
+        }
+
+        private <K> void record(KeyCodec<K> codec, K id, int ordinal) throws IOException {
+            final int keySize = codec.size(id);
+            if (keySize > 0xFFFF)
+                throw new IOException("Entity id " + id + " is too long for a snapshot");
+            ensure(2 + keySize + width);
+            buffer.putShort((short) keySize);
+            codec.write(id, buffer);
+            putOrdinal(ordinal);
+            blockCount++;
+        }
+
+        private void putOrdinal(int ordinal) {
+            if (ordinal >= stateCount)
+                throw new IllegalArgumentException("No state with ordinal " + ordinal);
+            if (ordinal < 0) ordinal = -1;
+            if (width == 1) buffer.put((byte) ordinal);
+            else if (width == 2) buffer.putShort((short) ordinal);
+            else buffer.putInt(ordinal);
+        }
+
+        private void ensure(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                endBlock();
+                flush();
+            }
+            if (blockStart < 0) {
+                blockStart = buffer.position();
+                buffer.putInt(0);
+            }
+        }
+
+        private void endBlock() {
+            if (blockStart < 0) return;
+            buffer.putInt(blockStart, blockCount);
+            blockStart = -1;
+            blockCount = 0;
+        }
+
+        private void finish() throws IOException {
+            endBlock();
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(0);
+            flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class Input {
+
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private int stateCount;
+
+        private Input(ReadableByteChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            if (channel != null) buffer.flip();
+        }
+
+        private int header(StateMachineDefinition<?, ?> definition, boolean keyed) throws IOException {
+            require(19);
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a state machine snapshot");
+            if (buffer.get() != VERSION)
+                throw new IOException("Unsupported snapshot version");
+            final int width = buffer.get();
+            final boolean keyedSnapshot = buffer.get() == 1;
+            final long fingerprint = buffer.getLong();
+            final int stateCount = buffer.getInt();
+            if (keyedSnapshot != keyed)
+                throw new IOException(keyed ? "Snapshot does not hold entity ids" : "Snapshot holds entity ids");
+            if (fingerprint != definition.getFingerprint() || stateCount != definition.getStateCount())
+                throw new IOException("Snapshot was taken with a different state machine definition");
+            if (width != width(stateCount))
+                throw new IOException("Snapshot has an invalid state width of " + width);
+            this.stateCount = stateCount;
+            return width;
+        }
+
+        private int blockCount() throws IOException {
+            require(4);
+            final int count = buffer.getInt();
+            if (count < 0)
+                throw new IOException("Snapshot has an invalid block of " + count + " records");
+            return count;
+        }
+
+        /**
+         * @return the state ordinal of the next record, -1 for a machine without state
+         */
+        private int ordinal(int width) throws IOException {
+            require(width);
+            final int ordinal;
+            if (width == 1) {
+                final int read = buffer.get() & 0xFF;
+                ordinal = read == 0xFF ? -1 : read;
+            } else if (width == 2) {
+                final int read = buffer.getShort() & 0xFFFF;
+                ordinal = read == 0xFFFF ? -1 : read;
+            } else {
+                ordinal = buffer.getInt();
+            }
+            if (ordinal < -1 || ordinal >= stateCount)
+                throw new IOException("Snapshot has an invalid state ordinal " + ordinal + " for " + stateCount + " states");
+            return ordinal;
+        }
+
+        private void require(int size) throws IOException {
+            if (buffer.remaining() >= size) return;
+            if (channel == null) throw new EOFException("Snapshot is truncated");
+            buffer.compact();
+            while (buffer.position() < size) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    throw new EOFException("Snapshot is truncated");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
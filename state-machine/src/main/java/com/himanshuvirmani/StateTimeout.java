@@ -0,0 +1,25 @@
+package com.himanshuvirmani;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event fired on an entity which stayed in a state for longer than a delay, declared with
+ * {@link StateMachine#timeout(Object, long, TimeUnit, Object)}.
+ */
+@Getter
+public final class StateTimeout<T, E> {
+
+    private final T state;
+
+    private final long delayNanos;
+
+    private final E event;
+
+    StateTimeout(T state, long delayNanos, E event) {
+        this.state = state;
+        this.delayNanos = delayNanos;
+        this.event = event;
+    }
+}
@@ -0,0 +1,206 @@
+package com.himanshuvirmani;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel for large numbers of timeouts which are mostly cancelled before they expire, such as
+ * state timeouts of the entities of a {@link StateMachineRegistry}. Scheduling and cancelling are constant time
+ * list operations on one of the wheel's buckets; expiry is checked with a resolution of one tick.
+ * <p>
+ * The wheel does not run by itself. Either call {@link #advance()} from your own scheduler, which with a
+ * {@link TimeSource} driven by the caller makes timeouts deterministic in tests, or {@link #start()} a thread
+ * advancing it every tick. Expired tasks run on the thread advancing the wheel.
+ */
+public final class TimingWheel {
+
+    public static final TimeSource SYSTEM_TIME = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final TimeSource timeSource;
+
+    private final long tickNanos;
+
+    private final Timeout[] buckets;
+
+    private final int mask;
+
+    private final long startTime;
+
+    private long currentTick;
+
+    private int size;
+
+    private volatile Thread worker;
+
+    public TimingWheel(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, 512, SYSTEM_TIME);
+    }
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize, TimeSource timeSource) {
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("Tick duration should be positive");
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.timeSource = timeSource;
+
+        int length = 1;
+        while (length < wheelSize) length <<= 1;
+        buckets = new Timeout[length];
+        mask = length - 1;
+        startTime = timeSource.nanoTime();
+    }
+
+    /**
+     * Runs the task once the delay has passed, at the first tick reached at or after the deadline. Deadlines
+     * too far away to be represented in nanoseconds are never reached.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        final long now = timeSource.nanoTime() - startTime;
+        final long delayNanos = unit.toNanos(delay);
+        final long deadlineTick = delayNanos > Long.MAX_VALUE - tickNanos - now
+                ? Long.MAX_VALUE / tickNanos
+                : (now + delayNanos + tickNanos - 1) / tickNanos;
+        final Timeout timeout = new Timeout(this, task);
+        synchronized (this) {
+            timeout.deadlineTick = Math.max(deadlineTick, currentTick);
+            timeout.bucket = (int) (timeout.deadlineTick & mask);
+            final Timeout head = buckets[timeout.bucket];
+            timeout.next = head;
+            if (head != null) head.previous = timeout;
+            buckets[timeout.bucket] = timeout;
+            size++;
+        }
+        return timeout;
+    }
+
+    /**
+     * Runs the tasks of every timeout whose deadline has passed according to the time source. After a pause
+     * longer than a rotation each bucket is only scanned once, so tasks do not necessarily run in deadline order.
+     *
+     * @return the number of tasks run
+     */
+    public int advance() {
+        final long targetTick = (timeSource.nanoTime() - startTime) / tickNanos;
+        final List<Timeout> expired = new ArrayList<Timeout>();
+        synchronized (this) {
+            final long lastTick = Math.min(targetTick, currentTick + buckets.length - 1);
+            for (long tick = currentTick; tick <= lastTick && size > 0; tick++) {
+                expire(buckets[(int) (tick & mask)], targetTick, expired);
+            }
+            if (currentTick <= targetTick) currentTick = targetTick + 1;
+        }
+        for (int i = 0; i < expired.size(); i++) {
+            expired.get(i).task.run();
+        }
+        return expired.size();
+    }
+
+    private void expire(Timeout timeout, long targetTick, List<Timeout> expired) {
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.deadlineTick <= targetTick) {
+                unlink(timeout);
+                timeout.expired = true;
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private synchronized boolean cancel(Timeout timeout) {
+        if (timeout.expired || timeout.bucket < 0) return false;
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous == null) buckets[timeout.bucket] = timeout.next;
+        else timeout.previous.next = timeout.next;
+        if (timeout.next != null) timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+
+    /**
+     * @return the number of pending timeouts
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Starts a daemon thread advancing the wheel every tick, until {@link #stop()} is called.
+     */
+    public synchronized void start() {
+        if (worker != null) return;
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long tickMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(tickNanos));
+                while (worker == Thread.currentThread()) {
+                    advance();
+                    try {
+                        Thread.sleep(tickMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "timing-wheel");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        final Thread thread = worker;
+        worker = null;
+        if (thread != null) thread.interrupt();
+    }
+
+    public interface TimeSource {
+        long nanoTime();
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public static final class Timeout {
+
+        private final TimingWheel wheel;
+
+        private final Runnable task;
+
+        private long deadlineTick;
+
+        private int bucket = -1;
+
+        private boolean expired;
+
+        private Timeout previous;
+
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * @return false when the task has already expired or was cancelled before
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.himanshuvirmani;
 
 import com.himanshuvirmani.exceptions.TransitionCreationException;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * Created by himanshu.virmani on 15/11/15.
@@ -11,6 +14,9 @@ import java.lang.ref.WeakReference;
 @Data
 public class Transition<T, E> {
 
+    @SuppressWarnings("rawtypes")
+    private static final onSuccessListener[] NO_LISTENERS = new onSuccessListener[0];
+
     private T from;
 
     private T to;
@@ -19,17 +25,238 @@ public class Transition<T, E> {
 
     private boolean ignore;
 
+    /** Whether the transition leaves from any state, {@link #from} being null. */
+    private boolean anyState;
+
+    /** Whether the transition is taken on any event, {@link #on} being null. */
+    private boolean anyEvent;
+
     private Condition condition;
 
-    private onSuccessListener<T, E> onSuccessListener;
+    private Guard<T, E, ?> guard;
+
+    /**
+     * Type of the context the guard accepts, checked before calling it, or null when it is not checked.
+     */
+    private Class<?> guardContextType;
+
+    /**
+     * Candidates for the same from state and event are evaluated from the highest priority down.
+     */
+    private int priority;
+
+    /**
+     * All success listeners of the transition in registration order, replaced as a whole when changed.
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile onSuccessListener<T, E>[] onSuccessListeners;
 
     public Transition(TransitionBuilder<T, E> tseTransitionBuilder) {
         this.from = tseTransitionBuilder.from;
         this.to = tseTransitionBuilder.to;
         this.on = tseTransitionBuilder.on;
-        this.onSuccessListener = tseTransitionBuilder.onSuccessListener;
+        this.onSuccessListeners = tseTransitionBuilder.onSuccessListeners;
         this.ignore = tseTransitionBuilder.ignore;
+        this.anyState = tseTransitionBuilder.anyState;
+        this.anyEvent = tseTransitionBuilder.anyEvent;
         this.condition =  tseTransitionBuilder.condition;
+        this.guard = tseTransitionBuilder.guard;
+        this.guardContextType = tseTransitionBuilder.guardContextType;
+        this.priority = tseTransitionBuilder.priority;
+    }
+
+    private Transition(Transition<T, E> inherited, T from, E on) {
+        this.from = from;
+        this.to = inherited.to;
+        this.on = on;
+        this.onSuccessListeners = inherited.onSuccessListeners;
+        this.ignore = inherited.ignore;
+        this.anyState = inherited.anyState && from == null;
+        this.anyEvent = inherited.anyEvent && on == null;
+        this.condition = inherited.condition;
+        this.guard = inherited.guard;
+        this.guardContextType = inherited.guardContextType;
+        this.priority = inherited.priority;
+    }
+
+    /**
+     * @return a copy of a wildcard transition for the state and event it was taken from and on
+     */
+    Transition<T, E> resolve(T state, E event) {
+        return new Transition<T, E>(this, state, event);
+    }
+
+    /**
+     * @return copies of the transitions, sharing their conditions, guards and current listeners
+     */
+    static <T, E> Transition<T, E>[] copyAll(Transition<T, E>[] transitions) {
+        final Transition<T, E>[] copy = newArray(transitions.length);
+        for (int i = 0; i < transitions.length; i++) {
+            copy[i] = new Transition<T, E>(transitions[i], transitions[i].from, transitions[i].on);
+        }
+        return copy;
+    }
+
+    boolean isWildcard() {
+        return anyState || anyEvent;
+    }
+
+    boolean isGuarded() {
+        return condition != null || guard != null;
+    }
+
+    /**
+     * @return true when the transition accepts any event it is a candidate for, shadowing lower candidates
+     */
+    boolean isUnconditional() {
+        return ignore || to == null || !isGuarded();
+    }
+
+    /**
+     * @return true when the transition handles the event, ignored transitions always do
+     */
+    boolean accepts(T state, E event, Object context) {
+        return ignore || to == null || isMet(state, event, context);
+    }
+
+    /**
+     * @return the first of the candidates accepting the event, or null when none does
+     */
+    static <T, E> Transition<T, E> select(Transition<T, E>[] candidates, T state, E event, Object context) {
+        if (candidates == null) return null;
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].accepts(state, event, context)) return candidates[i];
+        }
+        return null;
+    }
+
+    /**
+     * Adds to {@code shadowed} the candidates which can never be selected because an unconditional candidate of a
+     * higher priority is always selected before them.
+     */
+    static <T, E> void addShadowed(Transition<T, E>[] candidates, List<Transition<T, E>> shadowed) {
+        if (candidates == null) return;
+        for (int i = 0; i < candidates.length - 1; i++) {
+            if (!candidates[i].isUnconditional()) continue;
+            for (int j = i + 1; j < candidates.length; j++) shadowed.add(candidates[j]);
+            return;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T, E> Transition<T, E>[] newArray(int length) {
+        return (Transition<T, E>[]) new Transition<?, ?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T, E> Transition<T, E>[][] newArrays(int length) {
+        return (Transition<T, E>[][]) new Transition<?, ?>[length][];
+    }
+
+    /**
+     * Adds a transition to the candidates of its (from, on) pair without modifying {@code candidates}.
+     * Candidates are kept by descending priority and then in order of creation. A transition replaces an
+     * unconditional candidate of the same priority, which it could otherwise never be selected before, like the
+     * single transition per pair used to be replaced.
+     */
+    static <T, E> Transition<T, E>[] insert(Transition<T, E>[] candidates, Transition<T, E> transition) {
+        if (candidates == null) {
+            final Transition<T, E>[] single = newArray(1);
+            single[0] = transition;
+            return single;
+        }
+
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].isUnconditional() && candidates[i].priority == transition.priority) {
+                final Transition<T, E>[] replaced = candidates.clone();
+                replaced[i] = transition;
+                return replaced;
+            }
+        }
+
+        int index = 0;
+        while (index < candidates.length && candidates[index].priority >= transition.priority) index++;
+
+        final Transition<T, E>[] inserted = newArray(candidates.length + 1);
+        System.arraycopy(candidates, 0, inserted, 0, index);
+        inserted[index] = transition;
+        System.arraycopy(candidates, index, inserted, index + 1, candidates.length - index);
+        return inserted;
+    }
+
+    /**
+     * @return true when both the condition and the guard of the transition, if any, are met
+     * @throws IllegalArgumentException when the context is not of the type the guard was declared with
+     */
+    @SuppressWarnings("unchecked")
+    boolean isMet(T state, E event, Object context) {
+        if (condition != null && !condition.isMet()) return false;
+        if (guard == null) return true;
+        if (context != null && guardContextType != null && !guardContextType.isInstance(context))
+            throw new IllegalArgumentException("Guard of the transition from " + state + " on " + event + " expects a "
+                    + guardContextType.getName() + " context, not a " + context.getClass().getName());
+        return ((Guard<T, E, Object>) guard).isMet(state, event, context);
+    }
+
+    void notifySuccess(T from, T to, E on) {
+        final onSuccessListener<T, E>[] listeners = onSuccessListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onSuccess(from, to, on);
+        }
+    }
+
+    /**
+     * @return the first success listener of the transition, or null when it has none
+     */
+    public onSuccessListener<T, E> getOnSuccessListener() {
+        return onSuccessListeners.length == 0 ? null : onSuccessListeners[0];
+    }
+
+    /**
+     * Replaces the success listeners of the transition by the given one, or removes them all when it is null.
+     * Copies made for substates when the machine was compiled keep the listeners they were made with.
+     */
+    public void setOnSuccessListener(onSuccessListener<T, E> onSuccessListener) {
+        onSuccessListeners = append(Transition.<T, E>noListeners(), onSuccessListener);
+    }
+
+    /**
+     * Adds a success listener after those the transition already has.
+     */
+    public synchronized void addOnSuccessListener(onSuccessListener<T, E> onSuccessListener) {
+        onSuccessListeners = append(onSuccessListeners, onSuccessListener);
+    }
+
+    boolean hasSuccessListeners() {
+        return onSuccessListeners.length > 0;
+    }
+
+    /**
+     * @return the candidates of a substate followed by copies of the candidates of one of its ancestors,
+     * leaving from the substate
+     */
+    static <T, E> Transition<T, E>[] inherit(Transition<T, E>[] candidates, Transition<T, E>[] inherited, T state) {
+        final int length = candidates == null ? 0 : candidates.length;
+        final Transition<T, E>[] all = newArray(length + inherited.length);
+        if (candidates != null) System.arraycopy(candidates, 0, all, 0, length);
+        for (int i = 0; i < inherited.length; i++) {
+            all[length + i] = new Transition<T, E>(inherited[i], state, inherited[i].on);
+        }
+        return all;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T, E> onSuccessListener<T, E>[] append(onSuccessListener<T, E>[] listeners, onSuccessListener<T, E> listener) {
+        if (listener == null) return listeners;
+        final onSuccessListener<T, E>[] appended = (onSuccessListener<T, E>[]) new onSuccessListener<?, ?>[listeners.length + 1];
+        System.arraycopy(listeners, 0, appended, 0, listeners.length);
+        appended[listeners.length] = listener;
+        return appended;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T, E> onSuccessListener<T, E>[] noListeners() {
+        return NO_LISTENERS;
     }
 
     public interface onSuccessListener<T, E> {
@@ -48,9 +275,19 @@ public class Transition<T, E> {
 
         private boolean ignore;
 
+        private boolean anyState;
+
+        private boolean anyEvent;
+
         private Condition condition;
 
-        private onSuccessListener<U, V> onSuccessListener;
+        private Guard<U, V, ?> guard;
+
+        private Class<?> guardContextType;
+
+        private int priority;
+
+        private onSuccessListener<U, V>[] onSuccessListeners = Transition.noListeners();
 
         public TransitionBuilder(StateMachine<U, V> stateMachine) {
             stateMachineWeakReference = new WeakReference<StateMachine<U, V>>(stateMachine);
@@ -61,6 +298,16 @@ public class Transition<T, E> {
             return this;
         }
 
+        /**
+         * Makes the transition leave from any state. It is stored once and only taken when no transition
+         * defined for the current state itself accepts the event.
+         */
+        public TransitionBuilder<U, V> fromAnyState() {
+            from = null;
+            anyState = true;
+            return this;
+        }
+
         public TransitionBuilder<U, V> to(U toState) {
             to = toState;
             return this;
@@ -71,6 +318,16 @@ public class Transition<T, E> {
             return this;
         }
 
+        /**
+         * Makes the transition taken on any event. It is stored once and only taken when no transition
+         * defined for the event itself accepts it.
+         */
+        public TransitionBuilder<U, V> onAnyEvent() {
+            on = null;
+            anyEvent = true;
+            return this;
+        }
+
         public TransitionBuilder<U, V> ignore() {
             ignore=  true;
             return this;
@@ -81,8 +338,49 @@ public class Transition<T, E> {
             return this;
         }
 
+        /**
+         * Guards the transition without checking the type of the context, which reaches the guard as passed
+         * when firing. Prefer {@link #when(Class, Guard)}.
+         */
+        public TransitionBuilder<U, V> when(Guard<U, V, ?> guard) {
+            this.guard = guard;
+            this.guardContextType = null;
+            return this;
+        }
+
+        /**
+         * Guards the transition with a guard expecting contexts of {@code contextType}. Firing with a non null
+         * context of another type throws an {@link IllegalArgumentException} rather than a
+         * {@link ClassCastException} from within the guard.
+         */
+        public <C> TransitionBuilder<U, V> when(Class<C> contextType, Guard<U, V, C> guard) {
+            this.guard = guard;
+            this.guardContextType = contextType;
+            return this;
+        }
+
+        /**
+         * Several transitions can be defined for the same from state and event, each with its own condition or
+         * guard. They are evaluated from the highest priority down, in order of creation for equal priorities,
+         * and the first one whose condition is met is taken. Defaults to 0.
+         */
+        public TransitionBuilder<U, V> priority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
         public TransitionBuilder<U, V> setOnSuccessListener(onSuccessListener<U, V> onSuccessListener) {
-            this.onSuccessListener = onSuccessListener;
+            this.onSuccessListeners = Transition.append(Transition.<U, V>noListeners(), onSuccessListener);
+            return this;
+        }
+
+        public TransitionBuilder<U, V> addOnSuccessListener(onSuccessListener<U, V> onSuccessListener) {
+            this.onSuccessListeners = Transition.append(onSuccessListeners, onSuccessListener);
+            return this;
+        }
+
+        TransitionBuilder<U, V> setOnSuccessListeners(onSuccessListener<U, V>[] onSuccessListeners) {
+            this.onSuccessListeners = onSuccessListeners;
             return this;
         }
 
@@ -0,0 +1,251 @@
+package com.himanshuvirmani;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of fired events and optional latency histograms, shared by any number of machines and threads.
+ * Set it on a {@link StateMachine}, {@link ConcurrentStateMachine} or {@link StateMachineRegistry}; machines
+ * without metrics pay a single null check per event, and {@link #setEnabled(boolean) disabled} metrics a
+ * volatile read.
+ * <p>
+ * With a definition having a table events are counted per (from, event, to) for transitions and per (from, event)
+ * for other results, in {@link LongAdder}s created on first use. Otherwise, and for states or events which are
+ * not part of the definition, only totals per result are kept.
+ */
+public final class TransitionMetrics<T, E> {
+
+    public static final String GUARD = "guard";
+
+    public static final String LISTENERS = "listeners";
+
+    private static final TransitionResult[] RESULTS = TransitionResult.values();
+
+    private final StateMachineDefinition<T, E> definition;
+
+    private final int stateCount;
+
+    /**
+     * Counters of each (from, event) cell keyed by target state, created as targets are reached.
+     */
+    private final AtomicReferenceArray<Targets> transitioned;
+
+    private final AtomicReferenceArray<LongAdder> rejected;
+
+    private final LongAdder[] totals = new LongAdder[RESULTS.length];
+
+    private final LatencyHistogram guardLatencies;
+
+    private final LatencyHistogram listenerLatencies;
+
+    private volatile boolean enabled = true;
+
+    public TransitionMetrics(StateMachineDefinition<T, E> definition) {
+        this(definition, false);
+    }
+
+    /**
+     * @param latencies whether to time transition selection and listener dispatch, at the cost of two
+     *                  {@link System#nanoTime()} calls each
+     */
+    public TransitionMetrics(StateMachineDefinition<T, E> definition, boolean latencies) {
+        this.definition = definition;
+        for (int i = 0; i < totals.length; i++) totals[i] = new LongAdder();
+        if (definition.hasTable()) {
+            stateCount = definition.getStateCount();
+            final int cells = stateCount * definition.getEventCount();
+            transitioned = new AtomicReferenceArray<Targets>(cells);
+            rejected = new AtomicReferenceArray<LongAdder>(cells * RESULTS.length);
+        } else {
+            stateCount = 0;
+            transitioned = null;
+            rejected = null;
+        }
+        guardLatencies = latencies ? new LatencyHistogram() : null;
+        listenerLatencies = latencies ? new LatencyHistogram() : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return whether latencies should be measured, so that callers skip reading the clock otherwise
+     */
+    boolean isTiming() {
+        return guardLatencies != null && enabled;
+    }
+
+    void record(T from, E on, T to, TransitionResult result) {
+        if (!enabled) return;
+        totals[result.ordinal()].increment();
+        if (transitioned == null) return;
+
+        final int stateCode = definition.stateCode(from);
+        final int eventCode = definition.eventCode(on);
+        if (stateCode < 0 || eventCode < 0) return;
+        final int cell = eventCode * stateCount + stateCode;
+        if (result == TransitionResult.TRANSITIONED) {
+            adder(transitioned, cell, definition.stateCode(to)).increment();
+        } else {
+            adder(rejected, cell * RESULTS.length + result.ordinal()).increment();
+        }
+    }
+
+    void recordGuard(long nanos) {
+        guardLatencies.record(nanos);
+    }
+
+    void recordListeners(long nanos) {
+        listenerLatencies.record(nanos);
+    }
+
+    private static LongAdder adder(AtomicReferenceArray<LongAdder> adders, int index) {
+        final LongAdder adder = adders.get(index);
+        if (adder != null) return adder;
+        adders.compareAndSet(index, null, new LongAdder());
+        return adders.get(index);
+    }
+
+    /**
+     * @return the counter of the target within the cell, adding one to a copy of the cell's counters when the
+     * target was never reached before
+     */
+    private static LongAdder adder(AtomicReferenceArray<Targets> cells, int cell, int target) {
+        while (true) {
+            final Targets targets = cells.get(cell);
+            final int index = targets == null ? -1 : targets.indexOf(target);
+            if (index >= 0) return targets.adders[index];
+            cells.compareAndSet(cell, targets, Targets.with(targets, target));
+        }
+    }
+
+    private static long sum(AtomicReferenceArray<Targets> cells, int cell, int target) {
+        final Targets targets = cells.get(cell);
+        final int index = targets == null ? -1 : targets.indexOf(target);
+        return index < 0 ? 0 : targets.adders[index].sum();
+    }
+
+    private static long sum(AtomicReferenceArray<LongAdder> adders, int index) {
+        final LongAdder adder = adders == null ? null : adders.get(index);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public long getTotal(TransitionResult result) {
+        return totals[result.ordinal()].sum();
+    }
+
+    /**
+     * @return how many times the event moved a machine from {@code from} to {@code to}
+     */
+    public long getCount(T from, E on, T to) {
+        if (transitioned == null) return 0;
+        return sum(transitioned, cell(from, on), definition.ordinalOfState(to));
+    }
+
+    /**
+     * @return how many times the event was handled with the given result other than a transition
+     */
+    public long getCount(T from, E on, TransitionResult result) {
+        if (rejected == null) return 0;
+        return sum(rejected, cell(from, on) * RESULTS.length + result.ordinal());
+    }
+
+    private int cell(T from, E on) {
+        return definition.ordinalOfEvent(on) * stateCount + definition.ordinalOfState(from);
+    }
+
+    /**
+     * @return latencies of transition selection, conditions and guards included, or null when not measured
+     */
+    public LatencyHistogram getGuardLatencies() {
+        return guardLatencies;
+    }
+
+    /**
+     * @return latencies of listener dispatch, or null when not measured
+     */
+    public LatencyHistogram getListenerLatencies() {
+        return listenerLatencies;
+    }
+
+    /**
+     * Passes every non zero counter and the latency histograms to the sink.
+     */
+    public void report(MetricsSink<T, E> sink) {
+        if (transitioned != null) {
+            final int eventCount = definition.getEventCount();
+            for (int e = 0; e < eventCount; e++) {
+                for (int s = 0; s < stateCount; s++) {
+                    final int cell = e * stateCount + s;
+                    final Targets targets = transitioned.get(cell);
+                    if (targets != null) {
+                        final int[] reached = targets.states.clone();
+                        Arrays.sort(reached);
+                        for (int to : reached) {
+                            final long count = targets.adders[targets.indexOf(to)].sum();
+                            if (count > 0)
+                                sink.counter(definition.getState(s), definition.getEvent(e), definition.getState(to),
+                                        TransitionResult.TRANSITIONED, count);
+                        }
+                    }
+                    for (TransitionResult result : RESULTS) {
+                        final long count = sum(rejected, cell * RESULTS.length + result.ordinal());
+                        if (count > 0)
+                            sink.counter(definition.getState(s), definition.getEvent(e), null, result, count);
+                    }
+                }
+            }
+        } else {
+            for (TransitionResult result : RESULTS) {
+                final long count = totals[result.ordinal()].sum();
+                if (count > 0) sink.counter(null, null, null, result, count);
+            }
+        }
+        if (guardLatencies != null) {
+            sink.histogram(GUARD, guardLatencies);
+            sink.histogram(LISTENERS, listenerLatencies);
+        }
+    }
+
+    /**
+     * Immutable list of the target states reached from a cell and their counters, replaced by a longer copy
+     * when a new target is reached. Cells mostly have a single target, so lookups scan a tiny array.
+     */
+    private static final class Targets {
+
+        private final int[] states;
+
+        private final LongAdder[] adders;
+
+        private Targets(int[] states, LongAdder[] adders) {
+            this.states = states;
+            this.adders = adders;
+        }
+
+        private int indexOf(int state) {
+            for (int i = 0; i < states.length; i++) {
+                if (states[i] == state) return i;
+            }
+            return -1;
+        }
+
+        private static Targets with(Targets targets, int state) {
+            final int length = targets == null ? 0 : targets.states.length;
+            final int[] states = new int[length + 1];
+            final LongAdder[] adders = new LongAdder[length + 1];
+            if (targets != null) {
+                System.arraycopy(targets.states, 0, states, 0, length);
+                System.arraycopy(targets.adders, 0, adders, 0, length);
+            }
+            states[length] = state;
+            adders[length] = new LongAdder();
+            return new Targets(states, adders);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.himanshuvirmani;
+
+/**
+ * Outcome of evaluating an event against the current state of a state machine.
+ */
+public enum TransitionResult {
+
+    /** The event moved the machine to the transition's target state. */
+    TRANSITIONED,
+
+    /** A transition exists for the state and event but is marked as ignored. */
+    IGNORED,
+
+    /** No transition is defined from the state for the event. */
+    NO_TRANSITION,
+
+    /** A transition exists but its condition was not met. */
+    CONDITION_NOT_MET,
+
+    /** The machine was not in the expected state, or another transition committed first. */
+    STATE_MISMATCH,
+
+    /**
+     * The event was queued behind the one being handled by a run-to-completion machine, see
+     * {@link StateMachine#setRunToCompletion(int)}. Its outcome is only known to tracers and metrics.
+     */
+    QUEUED;
+
+    public boolean isAccepted() {
+        return this == TRANSITIONED || this == IGNORED;
+    }
+
+    /**
+     * @param selected the candidate that accepted the event, see {@link Transition#select}
+     * @param defined  whether any transition is defined for the state and event, only used when none was selected
+     */
+    static TransitionResult of(Transition<?, ?> selected, boolean defined) {
+        if (selected == null) return defined ? CONDITION_NOT_MET : NO_TRANSITION;
+        if (selected.getTo() == null || selected.isIgnore()) return IGNORED;
+        return TRANSITIONED;
+    }
+}
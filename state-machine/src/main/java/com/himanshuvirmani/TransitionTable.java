@@ -0,0 +1,410 @@
+package com.himanshuvirmani;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Dense transition lookup for state machines. Enum states and events are coded by their ordinals; other values
+ * are interned to dense int codes when the table is built, in order of first appearance. Transitions are laid
+ * out in a flat array indexed by {@code eventCode * stateCount + stateCode}, so a lookup is a single array load,
+ * preceded by a hash lookup of each code for values which are not enums.
+ * Each cell holds the highest priority candidate; the other candidates of cells having several are
+ * kept aside and only looked at when the first one is not taken. Wildcard transitions are kept per event,
+ * per state and once for all cells, and only looked at when no candidate of the cell accepts the event.
+ */
+class TransitionTable<T, E> {
+
+    private final Transition<T, E>[] cells;
+
+    /**
+     * All candidates of the cells having more than one, null for the others or when no cell has.
+     */
+    private final Transition<T, E>[][] candidates;
+
+    private final int[] targets;
+
+    /**
+     * Wildcard candidates from any state indexed by event ordinal, from a state on any event indexed by state
+     * ordinal, and from any state on any event. All null when there are no wildcard transitions.
+     */
+    private final Transition<T, E>[][] anyStateByEvent;
+
+    private final Transition<T, E>[][] anyEventByState;
+
+    private final Transition<T, E>[] any;
+
+    private final T[] states;
+
+    private final E[] events;
+
+    private final int stateCount;
+
+    private final int eventCount;
+
+    /**
+     * Codes of interned states and events, null when they are enums.
+     */
+    private final Map<T, Integer> stateCodes;
+
+    private final Map<E, Integer> eventCodes;
+
+    private TransitionTable(Transition<T, E>[] cells, Transition<T, E>[][] candidates, T[] states, E[] events,
+                            Map<T, Integer> stateCodes, Map<E, Integer> eventCodes,
+                            Transition<T, E>[][] anyStateByEvent, Transition<T, E>[][] anyEventByState,
+                            Transition<T, E>[] any) {
+        this.cells = cells;
+        this.stateCodes = stateCodes;
+        this.eventCodes = eventCodes;
+        this.candidates = candidates;
+        this.anyStateByEvent = anyStateByEvent;
+        this.anyEventByState = anyEventByState;
+        this.any = any;
+        this.states = states;
+        this.events = events;
+        this.stateCount = states.length;
+        this.eventCount = events.length;
+        this.targets = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            targets[i] = target(cells[i]);
+        }
+    }
+
+    private int target(Transition<T, E> transition) {
+        if (transition == null) return StateMachineDefinition.NO_TRANSITION;
+        if (transition.getTo() == null || transition.isIgnore()) return StateMachineDefinition.IGNORED;
+        return stateCode(transition.getTo());
+    }
+
+    /**
+     * @return the ordinal of an enum state, or the interned code of another one, -1 when it was not interned
+     */
+    int stateCode(T state) {
+        if (stateCodes == null) return ((Enum<?>) state).ordinal();
+        final Integer code = stateCodes.get(state);
+        return code == null ? -1 : code;
+    }
+
+    int eventCode(E event) {
+        if (eventCodes == null) return ((Enum<?>) event).ordinal();
+        final Integer code = eventCodes.get(event);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return whether states and events were interned rather than coded by enum ordinal
+     */
+    boolean isInterned() {
+        return stateCodes != null;
+    }
+
+    /**
+     * @return whether the value is one of the states of the table, checking the enum type of enum states
+     */
+    boolean hasState(Object state) {
+        if (stateCodes != null) return stateCodes.containsKey(state);
+        return state instanceof Enum && ((Enum<?>) state).getDeclaringClass() == ((Enum<?>) states[0]).getDeclaringClass();
+    }
+
+    boolean hasEvent(Object event) {
+        if (eventCodes != null) return eventCodes.containsKey(event);
+        return event instanceof Enum && ((Enum<?>) event).getDeclaringClass() == ((Enum<?>) events[0]).getDeclaringClass();
+    }
+
+    Transition<T, E> get(T state, E event) {
+        final int cell = cell(state, event);
+        return cell < 0 ? null : cells[cell];
+    }
+
+    /**
+     * @return the index of the cell, or -1 when the state or the event was not interned
+     */
+    int cell(T state, E event) {
+        final int stateCode = stateCode(state);
+        final int eventCode = eventCode(event);
+        if (stateCode < 0 || eventCode < 0) return -1;
+        return eventCode * stateCount + stateCode;
+    }
+
+    Transition<T, E> get(int stateOrdinal, int eventOrdinal) {
+        if (stateOrdinal < 0 || stateOrdinal >= stateCount || eventOrdinal < 0 || eventOrdinal >= eventCount)
+            return null;
+        return cells[eventOrdinal * stateCount + stateOrdinal];
+    }
+
+    /**
+     * @return whether all candidates of the cell lead to the same state, so that a transition out of the cell
+     * is fully described by its from state, event and the target of its first candidate
+     */
+    boolean hasSingleTarget(int stateOrdinal, int eventOrdinal) {
+        final int cell = eventOrdinal * stateCount + stateOrdinal;
+        if (fallsBack(cell, stateOrdinal, eventOrdinal)) return false;
+        if (candidates == null || candidates[cell] == null) return true;
+        final int target = targets[cell];
+        for (Transition<T, E> candidate : candidates[cell]) {
+            if (target(candidate) != target) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether wildcard transitions may be looked at for the cell, that is when some apply to it and
+     * the cell has no candidate always accepting the event
+     */
+    private boolean fallsBack(int cell, int stateOrdinal, int eventOrdinal) {
+        if (anyStateByEvent == null) return false;
+        if (anyStateByEvent[eventOrdinal] == null && anyEventByState[stateOrdinal] == null && any == null)
+            return false;
+        if (cells[cell] == null) return true;
+        final Transition<T, E>[] all = candidates == null ? null : candidates[cell];
+        if (all == null) return cells[cell].isGuarded() && !cells[cell].isIgnore() && cells[cell].getTo() != null;
+        for (Transition<T, E> candidate : all) {
+            if (!candidate.isGuarded() || candidate.isIgnore() || candidate.getTo() == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether any transition, wildcards included, is defined for the cell
+     */
+    boolean defines(int stateOrdinal, int eventOrdinal) {
+        if (cells[eventOrdinal * stateCount + stateOrdinal] != null) return true;
+        return anyStateByEvent != null && (anyStateByEvent[eventOrdinal] != null
+                || anyEventByState[stateOrdinal] != null || any != null);
+    }
+
+    /**
+     * Same as {@link #defines(int, int)}, where only wildcards can apply to values which were not interned.
+     */
+    boolean defines(T state, E event) {
+        final int stateCode = stateCode(state);
+        final int eventCode = eventCode(event);
+        if (stateCode >= 0 && eventCode >= 0) return defines(stateCode, eventCode);
+        return anyStateByEvent != null && ((eventCode >= 0 && anyStateByEvent[eventCode] != null)
+                || (stateCode >= 0 && anyEventByState[stateCode] != null) || any != null);
+    }
+
+    Transition<T, E> select(T state, E event, Object context) {
+        final int stateOrdinal = stateCode(state);
+        final int eventOrdinal = eventCode(event);
+        if (stateOrdinal < 0 || eventOrdinal < 0)
+            return anyStateByEvent == null ? null : selectWildcard(stateOrdinal, eventOrdinal, state, event, context);
+        return select(eventOrdinal * stateCount + stateOrdinal, stateOrdinal, eventOrdinal, state, event, context);
+    }
+
+    Transition<T, E> select(int stateOrdinal, int eventOrdinal, Object context) {
+        if (stateOrdinal < 0 || stateOrdinal >= stateCount || eventOrdinal < 0 || eventOrdinal >= eventCount)
+            return null;
+        return select(eventOrdinal * stateCount + stateOrdinal, stateOrdinal, eventOrdinal,
+                states[stateOrdinal], events[eventOrdinal], context);
+    }
+
+    private Transition<T, E> select(int cell, int stateOrdinal, int eventOrdinal, T state, E event, Object context) {
+        final Transition<T, E> transition = cells[cell];
+        if (transition != null && transition.accepts(state, event, context)) return transition;
+        final Transition<T, E> other = transition == null ? null : selectOther(cell, state, event, context);
+        if (other != null || anyStateByEvent == null) return other;
+        return selectWildcard(stateOrdinal, eventOrdinal, state, event, context);
+    }
+
+    /**
+     * @param stateOrdinal -1 for a state which was not interned, likewise for {@code eventOrdinal}
+     */
+    private Transition<T, E> selectWildcard(int stateOrdinal, int eventOrdinal, T state, E event, Object context) {
+        Transition<T, E> selected = eventOrdinal < 0 ? null : Transition.select(anyStateByEvent[eventOrdinal], state, event, context);
+        if (selected == null && stateOrdinal >= 0)
+            selected = Transition.select(anyEventByState[stateOrdinal], state, event, context);
+        if (selected == null) selected = Transition.select(any, state, event, context);
+        return selected;
+    }
+
+    private Transition<T, E> selectOther(int cell, T state, E event, Object context) {
+        if (candidates == null || candidates[cell] == null) return null;
+        final Transition<T, E>[] others = candidates[cell];
+        for (int i = 1; i < others.length; i++) {
+            if (others[i].accepts(state, event, context)) return others[i];
+        }
+        return null;
+    }
+
+    int next(int stateOrdinal, int eventOrdinal, Object context) {
+        if (stateOrdinal < 0 || stateOrdinal >= stateCount || eventOrdinal < 0 || eventOrdinal >= eventCount)
+            return StateMachineDefinition.NO_TRANSITION;
+
+        final int cell = eventOrdinal * stateCount + stateOrdinal;
+        final int target = targets[cell];
+        if (target == StateMachineDefinition.IGNORED) return target;
+        if (target == StateMachineDefinition.NO_TRANSITION && anyStateByEvent == null) return target;
+
+        final T state = states[stateOrdinal];
+        final E event = events[eventOrdinal];
+        if (target >= 0 && cells[cell].isMet(state, event, context)) return target;
+
+        Transition<T, E> other = target >= 0 ? selectOther(cell, state, event, context) : null;
+        if (other == null && anyStateByEvent != null)
+            other = selectWildcard(stateOrdinal, eventOrdinal, state, event, context);
+        if (other != null) return target(other);
+        return defines(stateOrdinal, eventOrdinal) ? StateMachineDefinition.CONDITION_NOT_MET : StateMachineDefinition.NO_TRANSITION;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the state and event names and of every candidate transition, identifying
+     * the structure of the table independently of the JVM it was built in. Values which are not enums are
+     * named by {@code toString()}.
+     */
+    long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        for (T state : states) hash = fnv(hash, name(state));
+        for (E event : events) hash = fnv(hash, name(event));
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] == null) continue;
+            hash = fnv(hash, cell);
+            final Transition<T, E>[] all = candidates == null ? null : candidates[cell];
+            if (all == null) {
+                hash = fnv(fnv(hash, target(cells[cell])), cells[cell].getPriority());
+            } else {
+                for (Transition<T, E> candidate : all) hash = fnv(fnv(hash, target(candidate)), candidate.getPriority());
+            }
+        }
+        if (anyStateByEvent != null) {
+            for (int event = 0; event < eventCount; event++) hash = fnv(hash, anyStateByEvent[event]);
+            for (int state = 0; state < stateCount; state++) hash = fnv(hash, anyEventByState[state]);
+            hash = fnv(hash, any);
+        }
+        return hash;
+    }
+
+    private static String name(Object value) {
+        return value instanceof Enum ? ((Enum<?>) value).name() : String.valueOf(value);
+    }
+
+    private long fnv(long hash, Transition<T, E>[] candidates) {
+        if (candidates == null) return fnv(hash, -1);
+        for (Transition<T, E> candidate : candidates) hash = fnv(fnv(hash, target(candidate)), candidate.getPriority());
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        return (hash ^ 0xFF) * 0x100000001b3L;
+    }
+
+    private static long fnv(long hash, int value) {
+        for (int i = 0; i < 4; i++) hash = (hash ^ ((value >>> (i * 8)) & 0xFF)) * 0x100000001b3L;
+        return hash;
+    }
+
+    T getState(int ordinal) {
+        return states[ordinal];
+    }
+
+    E getEvent(int ordinal) {
+        return events[ordinal];
+    }
+
+    int getStateCount() {
+        return stateCount;
+    }
+
+    int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Builds a table out of the given transitions, or returns null when there are none. States and events are
+     * coded by their ordinals when they are all constants of a single enum type, and interned otherwise along
+     * with the additional states and events, such as parent states and timeouts, which may not appear in any
+     * transition.
+     */
+    @SuppressWarnings("unchecked")
+    static <T, E> TransitionTable<T, E> compile(Map<E, Map<T, Transition<T, E>[]>> stateTransitions,
+                                                WildcardTransitions<T, E> wildcards,
+                                                Collection<T> otherStates, Collection<E> otherEvents) {
+        if (stateTransitions == null || (stateTransitions.isEmpty() && wildcards.isEmpty())) return null;
+
+        final Map<T, Integer> stateCodes = new LinkedHashMap<T, Integer>();
+        final Map<E, Integer> eventCodes = new LinkedHashMap<E, Integer>();
+        for (Map.Entry<E, Map<T, Transition<T, E>[]>> entry : stateTransitions.entrySet()) {
+            intern(eventCodes, entry.getKey());
+            for (Transition<T, E>[] transitions : entry.getValue().values()) {
+                for (Transition<T, E> transition : transitions) {
+                    intern(stateCodes, transition.getFrom());
+                    if (transition.getTo() != null) intern(stateCodes, transition.getTo());
+                }
+            }
+        }
+        for (Transition<T, E> transition : wildcards.all()) {
+            if (!transition.isAnyEvent()) intern(eventCodes, transition.getOn());
+            if (!transition.isAnyState()) intern(stateCodes, transition.getFrom());
+            if (transition.getTo() != null) intern(stateCodes, transition.getTo());
+        }
+
+        if (stateCodes.isEmpty() || eventCodes.isEmpty()) return null;
+
+        final Class<?> stateType = enumType(stateCodes.keySet());
+        final Class<?> eventType = enumType(eventCodes.keySet());
+        final boolean interned = stateType == null || eventType == null;
+        final T[] states;
+        final E[] events;
+        if (interned) {
+            for (T state : otherStates) intern(stateCodes, state);
+            for (E event : otherEvents) intern(eventCodes, event);
+            states = (T[]) stateCodes.keySet().toArray();
+            events = (E[]) eventCodes.keySet().toArray();
+        } else {
+            states = (T[]) stateType.getEnumConstants();
+            events = (E[]) eventType.getEnumConstants();
+        }
+        final TransitionTable<T, E> codes = new TransitionTable<T, E>(Transition.<T, E>newArray(0), null, states, events,
+                interned ? stateCodes : null, interned ? eventCodes : null, null, null, null);
+
+        final int stateCount = states.length;
+        final Transition<T, E>[] cells = Transition.newArray(stateCount * events.length);
+        Transition<T, E>[][] candidates = null;
+
+        for (Map.Entry<E, Map<T, Transition<T, E>[]>> entry : stateTransitions.entrySet()) {
+            final int offset = codes.eventCode(entry.getKey()) * stateCount;
+            for (Map.Entry<T, Transition<T, E>[]> stateEntry : entry.getValue().entrySet()) {
+                final int cell = offset + codes.stateCode(stateEntry.getKey());
+                final Transition<T, E>[] transitions = stateEntry.getValue();
+                cells[cell] = transitions[0];
+                if (transitions.length > 1) {
+                    if (candidates == null) candidates = Transition.newArrays(cells.length);
+                    candidates[cell] = transitions;
+                }
+            }
+        }
+
+        final Map<T, Integer> finalStateCodes = interned ? new HashMap<T, Integer>(stateCodes) : null;
+        final Map<E, Integer> finalEventCodes = interned ? new HashMap<E, Integer>(eventCodes) : null;
+        if (wildcards.isEmpty())
+            return new TransitionTable<T, E>(cells, candidates, states, events, finalStateCodes, finalEventCodes,
+                    null, null, null);
+
+        final Transition<T, E>[][] anyStateByEvent = Transition.newArrays(events.length);
+        for (int i = 0; i < events.length; i++) anyStateByEvent[i] = wildcards.fromAnyState(events[i]);
+        final Transition<T, E>[][] anyEventByState = Transition.newArrays(stateCount);
+        for (int i = 0; i < stateCount; i++) anyEventByState[i] = wildcards.onAnyEvent(states[i]);
+        return new TransitionTable<T, E>(cells, candidates, states, events, finalStateCodes, finalEventCodes,
+                anyStateByEvent, anyEventByState, wildcards.any());
+    }
+
+    private static <V> void intern(Map<V, Integer> codes, V value) {
+        if (!codes.containsKey(value)) codes.put(value, codes.size());
+    }
+
+    /**
+     * @return the enum type of all values, or null when they are not all constants of a single enum
+     */
+    private static Class<?> enumType(Collection<?> values) {
+        Class<?> type = null;
+        for (Object value : values) {
+            if (!(value instanceof Enum)) return null;
+            final Class<?> valueType = ((Enum<?>) value).getDeclaringClass();
+            if (type != null && type != valueType) return null;
+            type = valueType;
+        }
+        return type;
+    }
+}
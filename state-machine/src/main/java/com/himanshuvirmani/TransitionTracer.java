@@ -0,0 +1,16 @@
+package com.himanshuvirmani;
+
+/**
+ * Hook called by a {@link StateMachine} for every event it evaluates. No tracer is installed by default,
+ * in which case tracing costs a single null check per event.
+ */
+public interface TransitionTracer<T, E> {
+
+    /**
+     * @param from   state the machine was in when the event was fired
+     * @param on     the fired event
+     * @param to     the new state when {@code result} is {@link TransitionResult#TRANSITIONED}, null otherwise
+     * @param result how the event was handled
+     */
+    void trace(T from, E on, T to, TransitionResult result);
+}
@@ -1,7 +1,9 @@
 package com.himanshuvirmani;
 
 import com.himanshuvirmani.exceptions.TransitionCreationException;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 
 import java.lang.ref.WeakReference;
 
@@ -19,16 +21,37 @@ public class Transitions<T, E> {
 
     private boolean ignore;
 
-    private Transition.onSuccessListener<T, E> onSuccessListener;
+    @Setter(AccessLevel.NONE)
+    private Transition.onSuccessListener<T, E>[] onSuccessListeners;
 
     public Transitions(TransitionsBuilder<T, E> tseTransitionBuilder) {
         this.fromAny = tseTransitionBuilder.fromAny;
         this.toAmong = tseTransitionBuilder.toAmong;
         this.onEach = tseTransitionBuilder.onEach;
-        this.onSuccessListener = tseTransitionBuilder.onSuccessListener;
+        this.onSuccessListeners = tseTransitionBuilder.onSuccessListeners;
         this.ignore = tseTransitionBuilder.ignore;
     }
 
+    /**
+     * @return the first success listener of the transitions, or null when they have none
+     */
+    public Transition.onSuccessListener<T, E> getOnSuccessListener() {
+        return onSuccessListeners.length == 0 ? null : onSuccessListeners[0];
+    }
+
+    /**
+     * Replaces the success listeners of the transitions by the given one, or removes them all when it is null.
+     */
+    public void setOnSuccessListener(Transition.onSuccessListener<T, E> onSuccessListener) {
+        onSuccessListeners = Transition.append(Transition.<T, E>noListeners(), onSuccessListener);
+    }
+
+    /**
+     * Adds a success listener after those the transitions already have.
+     */
+    public void addOnSuccessListener(Transition.onSuccessListener<T, E> onSuccessListener) {
+        onSuccessListeners = Transition.append(onSuccessListeners, onSuccessListener);
+    }
 
     public static class TransitionsBuilder<U, V> {
 
@@ -42,7 +65,7 @@ public class Transitions<T, E> {
 
         private boolean ignore;
 
-        private Transition.onSuccessListener<U, V> onSuccessListener;
+        private Transition.onSuccessListener<U, V>[] onSuccessListeners = Transition.noListeners();
 
         public TransitionsBuilder(StateMachine<U, V> stateMachine) {
             stateMachineWeakReference = new WeakReference<StateMachine<U, V>>(stateMachine);
@@ -69,7 +92,12 @@ public class Transitions<T, E> {
         }
 
         public TransitionsBuilder<U, V> setOnSuccessListener(Transition.onSuccessListener<U, V> onSuccessListener) {
-            this.onSuccessListener = onSuccessListener;
+            this.onSuccessListeners = Transition.append(Transition.<U, V>noListeners(), onSuccessListener);
+            return this;
+        }
+
+        public TransitionsBuilder<U, V> addOnSuccessListener(Transition.onSuccessListener<U, V> onSuccessListener) {
+            this.onSuccessListeners = Transition.append(onSuccessListeners, onSuccessListener);
             return this;
         }
 
@@ -0,0 +1,165 @@
+package com.himanshuvirmani;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transitions applying to any state, any event or both, stored once instead of being expanded into every
+ * (state, event) pair. They are only looked at when no transition of the pair itself accepts the event:
+ * first those from any state on the event, then those from the state on any event, then those from any
+ * state on any event.
+ */
+final class WildcardTransitions<T, E> {
+
+    private final Map<E, Transition<T, E>[]> fromAnyState;
+
+    private final Map<T, Transition<T, E>[]> onAnyEvent;
+
+    private Transition<T, E>[] any;
+
+    WildcardTransitions() {
+        this(new HashMap<E, Transition<T, E>[]>(), new HashMap<T, Transition<T, E>[]>(), null);
+    }
+
+    private WildcardTransitions(Map<E, Transition<T, E>[]> fromAnyState, Map<T, Transition<T, E>[]> onAnyEvent,
+                                Transition<T, E>[] any) {
+        this.fromAnyState = fromAnyState;
+        this.onAnyEvent = onAnyEvent;
+        this.any = any;
+    }
+
+    /**
+     * @return a copy holding copies of the transitions, unaffected by later changes to them
+     */
+    WildcardTransitions<T, E> copy() {
+        final WildcardTransitions<T, E> copy = new WildcardTransitions<T, E>(new HashMap<E, Transition<T, E>[]>(),
+                new HashMap<T, Transition<T, E>[]>(), any == null ? null : Transition.copyAll(any));
+        for (Map.Entry<E, Transition<T, E>[]> entry : fromAnyState.entrySet()) {
+            copy.fromAnyState.put(entry.getKey(), Transition.copyAll(entry.getValue()));
+        }
+        for (Map.Entry<T, Transition<T, E>[]> entry : onAnyEvent.entrySet()) {
+            copy.onAnyEvent.put(entry.getKey(), Transition.copyAll(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy in which each substate also has the transitions from its ancestors on any event, nearest
+     * first, after its own
+     */
+    WildcardTransitions<T, E> inherit(Map<T, T> parentStates) {
+        final WildcardTransitions<T, E> copy = new WildcardTransitions<T, E>(
+                new HashMap<E, Transition<T, E>[]>(fromAnyState), new HashMap<T, Transition<T, E>[]>(onAnyEvent), any);
+        for (T state : parentStates.keySet()) {
+            Transition<T, E>[] candidates = onAnyEvent.get(state);
+            for (T parent = parentStates.get(state); parent != null; parent = parentStates.get(parent)) {
+                final Transition<T, E>[] inherited = onAnyEvent.get(parent);
+                if (inherited != null) candidates = Transition.inherit(candidates, inherited, state);
+            }
+            if (candidates != null) copy.onAnyEvent.put(state, candidates);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the transition replaced by the new one, see {@link Transition#insert}, or null
+     */
+    Transition<T, E> add(Transition<T, E> transition) {
+        final Transition<T, E>[] existing;
+        final Transition<T, E>[] updated;
+        if (transition.isAnyState() && transition.isAnyEvent()) {
+            existing = any;
+            any = updated = Transition.insert(existing, transition);
+        } else if (transition.isAnyState()) {
+            existing = fromAnyState.get(transition.getOn());
+            updated = Transition.insert(existing, transition);
+            fromAnyState.put(transition.getOn(), updated);
+        } else {
+            existing = onAnyEvent.get(transition.getFrom());
+            updated = Transition.insert(existing, transition);
+            onAnyEvent.put(transition.getFrom(), updated);
+        }
+
+        if (existing == null || existing.length != updated.length) return null;
+        for (int i = 0; i < existing.length; i++) {
+            if (existing[i] != updated[i]) return existing[i];
+        }
+        return null;
+    }
+
+    boolean isEmpty() {
+        return fromAnyState.isEmpty() && onAnyEvent.isEmpty() && any == null;
+    }
+
+    Transition<T, E> select(T state, E event, Object context) {
+        return select(state, event, context, null);
+    }
+
+    /**
+     * @param parentStates parent of each substate, whose ancestors' transitions on any event are looked at after
+     *                     its own, or null
+     */
+    Transition<T, E> select(T state, E event, Object context, Map<T, T> parentStates) {
+        Transition<T, E> selected = Transition.select(fromAnyState.get(event), state, event, context);
+        for (T from = state; selected == null && from != null; from = parentStates == null ? null : parentStates.get(from)) {
+            selected = Transition.select(onAnyEvent.get(from), state, event, context);
+        }
+        if (selected == null) selected = Transition.select(any, state, event, context);
+        return selected;
+    }
+
+    boolean defines(T state, E event) {
+        return defines(state, event, null);
+    }
+
+    boolean defines(T state, E event, Map<T, T> parentStates) {
+        if (any != null || fromAnyState.containsKey(event)) return true;
+        for (T from = state; from != null; from = parentStates == null ? null : parentStates.get(from)) {
+            if (onAnyEvent.containsKey(from)) return true;
+        }
+        return false;
+    }
+
+    boolean definesEvent(E event) {
+        return any != null || !onAnyEvent.isEmpty() || fromAnyState.containsKey(event);
+    }
+
+    Transition<T, E>[] fromAnyState(E event) {
+        return fromAnyState.get(event);
+    }
+
+    Transition<T, E>[] onAnyEvent(T state) {
+        return onAnyEvent.get(state);
+    }
+
+    Transition<T, E>[] any() {
+        return any;
+    }
+
+    /**
+     * @return every wildcard transition, tier after tier
+     */
+    List<Transition<T, E>> all() {
+        final List<Transition<T, E>> all = new ArrayList<Transition<T, E>>();
+        for (Transition<T, E>[] candidates : fromAnyState.values()) addAll(all, candidates);
+        for (Transition<T, E>[] candidates : onAnyEvent.values()) addAll(all, candidates);
+        addAll(all, any);
+        return all;
+    }
+
+    /**
+     * Adds the candidates which can never be selected, see {@link Transition#addShadowed}.
+     */
+    void addShadowed(List<Transition<T, E>> shadowed) {
+        for (Transition<T, E>[] candidates : fromAnyState.values()) Transition.addShadowed(candidates, shadowed);
+        for (Transition<T, E>[] candidates : onAnyEvent.values()) Transition.addShadowed(candidates, shadowed);
+        Transition.addShadowed(any, shadowed);
+    }
+
+    private static <T, E> void addAll(List<Transition<T, E>> all, Transition<T, E>[] candidates) {
+        if (candidates == null) return;
+        for (Transition<T, E> candidate : candidates) all.add(candidate);
+    }
+}
@@ -0,0 +1,77 @@
+import TestUtil.MySampleEvent;
+import TestUtil.MySampleState;
+import com.himanshuvirmani.ConcurrentStateMachine;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentStateMachineTest {
+
+    StateMachineDefinition<MySampleState, MySampleEvent> definition;
+
+    @Before
+    public void init() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        definition = stateMachine.compile();
+    }
+
+    @Test
+    public void testFireIfIn() {
+        ConcurrentStateMachine<MySampleState, MySampleEvent> stateMachine =
+                new ConcurrentStateMachine<MySampleState, MySampleEvent>(definition, MySampleState.CREATED);
+
+        assertEquals(TransitionResult.STATE_MISMATCH, stateMachine.fireIfIn(MySampleState.ONHOLD, MySampleEvent.DELIVER));
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.fireIfIn(MySampleState.CREATED, MySampleEvent.HOLD));
+        assertEquals(TransitionResult.NO_TRANSITION, stateMachine.fireIfIn(MySampleState.ONHOLD, MySampleEvent.HOLD));
+        assertEquals(MySampleState.ONHOLD, stateMachine.getCurrentState());
+    }
+
+    @Test
+    public void testRacingEventsCommitOnce() throws InterruptedException {
+        final ConcurrentStateMachine<MySampleState, MySampleEvent> stateMachine =
+                new ConcurrentStateMachine<MySampleState, MySampleEvent>(definition, MySampleState.CREATED);
+        final AtomicInteger changes = new AtomicInteger();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                assertEquals(MySampleState.CREATED, from);
+                changes.incrementAndGet();
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final MySampleEvent event = i % 2 == 0 ? MySampleEvent.HOLD : MySampleEvent.CANCEL;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    stateMachine.tryFire(event);
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, changes.get());
+    }
+}
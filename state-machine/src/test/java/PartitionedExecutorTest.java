@@ -0,0 +1,89 @@
+import TestUtil.MySampleEvent;
+import TestUtil.MySampleState;
+import com.himanshuvirmani.PartitionedExecutor;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineRegistry;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedExecutorTest {
+
+    PartitionedExecutor<Long, MySampleState, MySampleEvent> executor;
+
+    @Before
+    public void init() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CREATED).on(MySampleEvent.CREATE).create();
+        executor = new PartitionedExecutor<Long, MySampleState, MySampleEvent>(stateMachine.compile(), 4);
+    }
+
+    @After
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFireById() throws Exception {
+        executor.register(1L, MySampleState.CREATED);
+
+        assertEquals(TransitionResult.TRANSITIONED, executor.fire(1L, MySampleEvent.HOLD).get());
+        assertEquals(TransitionResult.NO_TRANSITION, executor.fire(1L, MySampleEvent.HOLD).get());
+        assertEquals(TransitionResult.NO_TRANSITION, executor.fire(2L, MySampleEvent.HOLD).get());
+        assertEquals(MySampleState.ONHOLD, executor.getState(1L).get());
+        assertEquals(MySampleState.ONHOLD, executor.remove(1L).get());
+        assertNull(executor.getState(1L).get());
+    }
+
+    @Test
+    public void testEventsOfAnEntityHandledInOrder() throws Exception {
+        final AtomicInteger changes = new AtomicInteger();
+        executor.setStateChangeListener(new StateMachineRegistry.EntityStateChangeListener<Long, MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(Long id, MySampleState from, MySampleState to, MySampleEvent on) {
+                changes.incrementAndGet();
+            }
+        });
+        for (long id = 0; id < 16; id++) {
+            executor.register(id, MySampleState.CREATED);
+        }
+
+        final List<CompletableFuture<TransitionResult>> results = new ArrayList<CompletableFuture<TransitionResult>>();
+        for (int i = 0; i < 1000; i++) {
+            for (long id = 0; id < 16; id++) {
+                results.add(executor.fire(id, i % 2 == 0 ? MySampleEvent.HOLD : MySampleEvent.CREATE));
+            }
+        }
+        for (CompletableFuture<TransitionResult> result : results) {
+            assertEquals(TransitionResult.TRANSITIONED, result.get());
+        }
+        assertEquals(16000, changes.get());
+    }
+
+    @Test
+    public void testRejectedAfterShutdown() throws InterruptedException {
+        executor.shutdown();
+        try {
+            executor.fire(1L, MySampleEvent.HOLD).get();
+            assertTrue(false);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import TestUtil.MySampleEvent;
+import TestUtil.MySampleState;
+import com.himanshuvirmani.Condition;
+import com.himanshuvirmani.DefinitionReport;
+import com.himanshuvirmani.IntStateMachine;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.Transition;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StateMachineDefinitionTest {
+
+    StateMachineDefinition<MySampleState, MySampleEvent> definition;
+
+    @Before
+    public void init() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).ignore().create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).when(new Condition() {
+            @Override
+            public boolean isMet() {
+                return false;
+            }
+        }).create();
+        definition = stateMachine.compile();
+    }
+
+    @Test
+    public void testEvaluate() {
+        assertTrue(definition.isEnumTable());
+        assertEquals(TransitionResult.TRANSITIONED, definition.evaluate(MySampleState.CREATED, MySampleEvent.HOLD));
+        assertEquals(TransitionResult.IGNORED, definition.evaluate(MySampleState.DELIVERED, MySampleEvent.CANCEL));
+        assertEquals(TransitionResult.NO_TRANSITION, definition.evaluate(MySampleState.CREATED, MySampleEvent.DELIVER));
+        assertEquals(TransitionResult.NO_TRANSITION, definition.evaluate(null, MySampleEvent.DELIVER));
+        assertEquals(TransitionResult.CONDITION_NOT_MET, definition.evaluate(MySampleState.ONHOLD, MySampleEvent.CANCEL));
+    }
+
+    @Test
+    public void testNext() {
+        assertEquals(MySampleState.ONHOLD, definition.next(MySampleState.CREATED, MySampleEvent.HOLD));
+        assertEquals(MySampleState.DELIVERED, definition.next(MySampleState.DELIVERED, MySampleEvent.CANCEL));
+        assertNull(definition.next(MySampleState.CREATED, MySampleEvent.DELIVER));
+        assertNull(definition.next(MySampleState.ONHOLD, MySampleEvent.CANCEL));
+    }
+
+    @Test
+    public void testNextOrdinal() {
+        assertEquals(MySampleState.ONHOLD.ordinal(),
+                definition.nextOrdinal(MySampleState.CREATED.ordinal(), MySampleEvent.HOLD.ordinal()));
+        assertEquals(StateMachineDefinition.IGNORED,
+                definition.nextOrdinal(MySampleState.DELIVERED.ordinal(), MySampleEvent.CANCEL.ordinal()));
+        assertEquals(StateMachineDefinition.NO_TRANSITION,
+                definition.nextOrdinal(MySampleState.CREATED.ordinal(), MySampleEvent.DELIVER.ordinal()));
+        assertEquals(StateMachineDefinition.CONDITION_NOT_MET,
+                definition.nextOrdinal(MySampleState.ONHOLD.ordinal(), MySampleEvent.CANCEL.ordinal()));
+        assertEquals(StateMachineDefinition.NO_TRANSITION, definition.nextOrdinal(42, 0));
+    }
+
+    @Test
+    public void testDefinitionUnaffectedByLaterTransitionChanges() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        final Transition<MySampleState, MySampleEvent> transition = new Transition<MySampleState, MySampleEvent>(
+                stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD));
+        stateMachine.apply(transition);
+        final StateMachineDefinition<MySampleState, MySampleEvent> definition = stateMachine.compile();
+
+        transition.setTo(MySampleState.CANCELLED);
+        transition.setIgnore(true);
+
+        assertEquals(MySampleState.ONHOLD, definition.next(MySampleState.CREATED, MySampleEvent.HOLD));
+        assertEquals(MySampleState.ONHOLD.ordinal(),
+                definition.nextOrdinal(MySampleState.CREATED.ordinal(), MySampleEvent.HOLD.ordinal()));
+        final StateMachine<MySampleState, MySampleEvent> machine =
+                new StateMachine<MySampleState, MySampleEvent>(definition, MySampleState.CREATED);
+        assertEquals(TransitionResult.TRANSITIONED, machine.tryFire(MySampleEvent.HOLD));
+        assertEquals(MySampleState.ONHOLD, machine.getCurrentState());
+    }
+
+    @Test
+    public void testFireAllColumn() {
+        final int size = 100000;
+        final int[] states = new int[size];
+        final byte[] byteStates = new byte[size];
+        for (int i = 0; i < size; i++) {
+            states[i] = i % 2 == 0 ? MySampleState.CREATED.ordinal() : MySampleState.DELIVERED.ordinal();
+            byteStates[i] = (byte) states[i];
+        }
+
+        assertEquals(size / 2, definition.fireAll(states, MySampleEvent.HOLD));
+        assertEquals(size / 2, definition.fireAll(byteStates, MySampleEvent.HOLD));
+        for (int i = 0; i < size; i++) {
+            final int expected = i % 2 == 0 ? MySampleState.ONHOLD.ordinal() : MySampleState.DELIVERED.ordinal();
+            assertEquals(expected, states[i]);
+            assertEquals(expected, byteStates[i]);
+        }
+    }
+
+    @Test
+    public void testFireAllEventColumn() {
+        final int[] states = {MySampleState.CREATED.ordinal(), MySampleState.ONHOLD.ordinal(), MySampleState.ONHOLD.ordinal()};
+        final int[] events = {MySampleEvent.HOLD.ordinal(), MySampleEvent.DELIVER.ordinal(), MySampleEvent.CANCEL.ordinal()};
+
+        assertEquals(2, definition.fireAll(states, events));
+        assertEquals(MySampleState.ONHOLD.ordinal(), states[0]);
+        assertEquals(MySampleState.DELIVERED.ordinal(), states[1]);
+        assertEquals(MySampleState.ONHOLD.ordinal(), states[2]);
+    }
+
+    @Test
+    public void testFireAllDoesNotCountSelfTransitions() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        final StateMachineDefinition<MySampleState, MySampleEvent> definition = stateMachine.compile();
+        final int[] states = {MySampleState.CREATED.ordinal(), MySampleState.ONHOLD.ordinal()};
+        final byte[] byteStates = {(byte) MySampleState.CREATED.ordinal(), (byte) MySampleState.ONHOLD.ordinal()};
+
+        assertEquals(1, definition.fireAll(states, MySampleEvent.HOLD));
+        assertEquals(1, definition.fireAll(byteStates, MySampleEvent.HOLD));
+        assertEquals(MySampleState.ONHOLD.ordinal(), states[0]);
+        assertEquals(MySampleState.ONHOLD.ordinal(), byteStates[0]);
+    }
+
+    @Test
+    public void testNextOrdinalFallsBackToLowerPriorityCandidate() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).when(new Condition() {
+            @Override
+            public boolean isMet() {
+                return false;
+            }
+        }).priority(2).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).on(MySampleEvent.CANCEL).ignore().create();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        definition = stateMachine.compile();
+
+        assertEquals(StateMachineDefinition.IGNORED,
+                definition.nextOrdinal(MySampleState.ONHOLD.ordinal(), MySampleEvent.CANCEL.ordinal()));
+        assertEquals(TransitionResult.IGNORED, definition.evaluate(MySampleState.ONHOLD, MySampleEvent.CANCEL));
+        assertEquals(MySampleState.CANCELLED, definition.next(MySampleState.CREATED, MySampleEvent.CANCEL));
+    }
+
+
+    @Test
+    public void testValidate() {
+        DefinitionReport<MySampleState, MySampleEvent> report = definition.validate(MySampleState.CREATED);
+        assertFalse(report.isValid());
+        assertEquals(Collections.emptyList(), report.getUnreachableStates());
+        assertEquals(Arrays.asList(MySampleState.DELIVERED, MySampleState.CANCELLED), report.getDeadEndStates());
+        assertEquals(Arrays.asList(MySampleEvent.CREATE), report.getUnusedEvents());
+
+        report = definition.validate(MySampleState.ONHOLD, MySampleState.DELIVERED, MySampleState.CANCELLED);
+        assertEquals(Arrays.asList(MySampleState.CREATED), report.getUnreachableStates());
+        assertEquals(Arrays.asList(MySampleEvent.CREATE, MySampleEvent.HOLD), report.getUnusedEvents());
+        assertTrue(report.getDeadEndStates().isEmpty());
+    }
+
+    @Test
+    public void testBuild() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.CREATE).create();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        assertTrue(stateMachine.build(MySampleState.CREATED, MySampleState.DELIVERED, MySampleState.CANCELLED).isEnumTable());
+
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CREATED).on(MySampleEvent.CANCEL).create();
+        try {
+            stateMachine.build(MySampleState.CREATED, MySampleState.DELIVERED, MySampleState.CANCELLED);
+            throw new AssertionError("Overwritten transition should be reported");
+        } catch (TransitionCreationException e) {
+            assertEquals("Invalid state machine definition. Unreachable states: [CANCELLED]. "
+                    + "Overwritten transitions: ONHOLD on CANCEL", e.getMessage());
+        }
+        assertFalse(stateMachine.isCompiled());
+    }
+
+    @Test
+    public void testInternedStatesAndEvents() throws TransitionCreationException {
+        StateMachine<String, Integer> stateMachine = new StateMachine<String, Integer>("new");
+        stateMachine.transition().from("new").to("open").on(1).create();
+        stateMachine.transition().from("open").to("closed").on(2).create();
+        stateMachine.transition().fromAnyState().to("failed").on(9).create();
+        StateMachineDefinition<String, Integer> interned = stateMachine.compile();
+
+        assertTrue(interned.hasTable());
+        assertFalse(interned.isEnumTable());
+        assertEquals(4, interned.getStateCount());
+        assertEquals(3, interned.getEventCount());
+        assertEquals("open", interned.getState(interned.ordinalOfState("open")));
+        assertEquals(Integer.valueOf(2), interned.getEvent(interned.ordinalOfEvent(2)));
+        assertEquals(interned.ordinalOfState("closed"),
+                interned.nextOrdinal(interned.ordinalOfState("open"), interned.ordinalOfEvent(2)));
+        assertEquals(StateMachineDefinition.NO_TRANSITION,
+                interned.nextOrdinal(interned.ordinalOfState("new"), interned.ordinalOfEvent(2)));
+        assertEquals(TransitionResult.TRANSITIONED, interned.evaluate("unknown", 9));
+        assertEquals(TransitionResult.NO_TRANSITION, interned.evaluate("unknown", 1));
+
+        IntStateMachine<String, Integer> intStateMachine = new IntStateMachine<String, Integer>(interned, "new");
+        assertEquals(interned.ordinalOfState("open"), intStateMachine.fire(interned.ordinalOfEvent(1)));
+        assertEquals(StateMachineDefinition.NO_TRANSITION, intStateMachine.fire(interned.ordinalOfEvent(1)));
+        intStateMachine.fire(interned.ordinalOfEvent(9));
+        assertEquals("failed", intStateMachine.getCurrentState());
+
+        try {
+            interned.ordinalOfState("unknown");
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("unknown"));
+        }
+    }
+}
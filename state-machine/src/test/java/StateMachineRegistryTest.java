@@ -0,0 +1,179 @@
+import TestUtil.MySampleEvent;
+import TestUtil.MySampleState;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineRegistry;
+import com.himanshuvirmani.TimingWheel;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import com.himanshuvirmani.exceptions.TransitionException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StateMachineRegistryTest {
+
+    StateMachineRegistry<Long, MySampleState, MySampleEvent> registry;
+
+    @Before
+    public void init() throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        registry = new StateMachineRegistry<Long, MySampleState, MySampleEvent>(stateMachine.compile());
+    }
+
+    @Test
+    public void testFireById() throws TransitionException {
+        registry.register(1L, MySampleState.CREATED);
+        registry.register(2L, MySampleState.ONHOLD);
+
+        registry.fire(1L, MySampleEvent.HOLD);
+        assertEquals(TransitionResult.TRANSITIONED, registry.tryFire(2L, MySampleEvent.DELIVER));
+        assertEquals(TransitionResult.NO_TRANSITION, registry.tryFire(2L, MySampleEvent.HOLD));
+        assertEquals(TransitionResult.NO_TRANSITION, registry.tryFire(3L, MySampleEvent.HOLD));
+
+        assertEquals(MySampleState.ONHOLD, registry.getState(1L));
+        assertEquals(MySampleState.DELIVERED, registry.getState(2L));
+        assertNull(registry.getState(3L));
+
+        try {
+            registry.fire(3L, MySampleEvent.HOLD);
+            assertEquals(true, false);
+        } catch (TransitionException e) {
+            assertTrue(e.getMessage().contains("3"));
+        }
+    }
+
+    @Test
+    public void testConcurrentFireOnSameEntity() throws InterruptedException {
+        registry.register(1L, MySampleState.CREATED);
+        final AtomicInteger changes = new AtomicInteger();
+        registry.setStateChangeListener(new StateMachineRegistry.EntityStateChangeListener<Long, MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(Long id, MySampleState from, MySampleState to, MySampleEvent on) {
+                changes.incrementAndGet();
+            }
+        });
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    registry.tryFire(1L, MySampleEvent.HOLD);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, changes.get());
+        assertEquals(MySampleState.ONHOLD, registry.getState(1L));
+    }
+
+    @Test
+    public void testStateTimeouts() throws TransitionCreationException, TransitionException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.timeout(MySampleState.ONHOLD, 30, TimeUnit.MINUTES, MySampleEvent.CANCEL);
+
+        final long[] now = {0};
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.SECONDS, 64, new TimingWheel.TimeSource() {
+            @Override
+            public long nanoTime() {
+                return now[0];
+            }
+        });
+        registry = new StateMachineRegistry<Long, MySampleState, MySampleEvent>(stateMachine.compile());
+        registry.setTimingWheel(wheel);
+
+        registry.register(1L, MySampleState.CREATED);
+        registry.register(2L, MySampleState.ONHOLD);
+        registry.register(3L, MySampleState.ONHOLD);
+        registry.fire(1L, MySampleEvent.HOLD);
+        assertEquals(3, wheel.size());
+
+        now[0] = TimeUnit.MINUTES.toNanos(10);
+        assertEquals(0, wheel.advance());
+        registry.fire(2L, MySampleEvent.DELIVER);
+        registry.remove(3L);
+        assertEquals(1, wheel.size());
+
+        now[0] = TimeUnit.MINUTES.toNanos(30) - 1;
+        assertEquals(0, wheel.advance());
+        now[0] = TimeUnit.MINUTES.toNanos(30);
+        assertEquals(1, wheel.advance());
+
+        assertEquals(MySampleState.CANCELLED, registry.getState(1L));
+        assertEquals(MySampleState.DELIVERED, registry.getState(2L));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testTimingWheelAdvanceAfterLongPause() {
+        final long[] now = {0};
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.SECONDS, 8, new TimingWheel.TimeSource() {
+            @Override
+            public long nanoTime() {
+                return now[0];
+            }
+        });
+        final List<String> ran = new ArrayList<String>();
+        wheel.schedule(task(ran, "5s"), 5, TimeUnit.SECONDS);
+        wheel.schedule(task(ran, "13s"), 13, TimeUnit.SECONDS);
+        wheel.schedule(task(ran, "2h"), 2, TimeUnit.HOURS);
+
+        now[0] = TimeUnit.HOURS.toNanos(1);
+        assertEquals(2, wheel.advance());
+        assertEquals(new HashSet<String>(Arrays.asList("5s", "13s")), new HashSet<String>(ran));
+        assertEquals(1, wheel.size());
+
+        now[0] = TimeUnit.HOURS.toNanos(2);
+        assertEquals(1, wheel.advance());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testTimingWheelHugeDelay() {
+        final long[] now = {TimeUnit.HOURS.toNanos(1)};
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, new TimingWheel.TimeSource() {
+            @Override
+            public long nanoTime() {
+                return now[0];
+            }
+        });
+        final List<String> ran = new ArrayList<String>();
+        now[0] += TimeUnit.HOURS.toNanos(1);
+        wheel.schedule(task(ran, "max"), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        wheel.schedule(task(ran, "days"), Long.MAX_VALUE, TimeUnit.DAYS);
+        wheel.schedule(task(ran, "1ms"), 1, TimeUnit.MILLISECONDS);
+
+        now[0] += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(1, wheel.advance());
+        assertEquals(Arrays.asList("1ms"), ran);
+        assertEquals(2, wheel.size());
+    }
+
+    private static Runnable task(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+}
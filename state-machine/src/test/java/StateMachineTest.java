@@ -1,16 +1,40 @@
 import TestUtil.MySampleEvent;
 import TestUtil.MySampleState;
+import com.himanshuvirmani.AsyncListenerDispatcher;
 import com.himanshuvirmani.Condition;
+import com.himanshuvirmani.DefinitionReport;
+import com.himanshuvirmani.Guard;
+import com.himanshuvirmani.LatencyHistogram;
+import com.himanshuvirmani.MetricsSink;
 import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
 import com.himanshuvirmani.Transition;
+import com.himanshuvirmani.TransitionMetrics;
+import com.himanshuvirmani.TransitionResult;
+import com.himanshuvirmani.TransitionTracer;
 import com.himanshuvirmani.exceptions.TransitionConditionNotMetException;
 import com.himanshuvirmani.exceptions.TransitionCreationException;
 import com.himanshuvirmani.exceptions.TransitionException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by himanshu.virmani on 22/11/15.
@@ -289,5 +313,772 @@ public class StateMachineTest {
         assertEquals(stateMachine.getCurrentState(), MySampleState.CREATED);
     }
 
+    @Test
+    public void testCompiledTransitions() {
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+            stateMachine.transition().from(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).ignore().create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        stateMachine.compile();
+        assertTrue(stateMachine.isCompiled());
+
+        try {
+            stateMachine.fire(MySampleEvent.HOLD);
+            stateMachine.fire(MySampleEvent.DELIVER);
+            stateMachine.fire(MySampleEvent.CANCEL);
+        } catch (TransitionException e) {
+            e.printStackTrace();
+        }
+        assertEquals(stateMachine.getCurrentState(), MySampleState.DELIVERED);
+
+        try {
+            stateMachine.fire(MySampleEvent.HOLD);
+            assertEquals(true, false);
+        } catch (TransitionException e) {
+            assertEquals(stateMachine.getCurrentState(), MySampleState.DELIVERED);
+        }
+    }
+
+    @Test
+    public void testApplyAfterCompileDropsTable() {
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.compile();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(false, stateMachine.isCompiled());
+    }
+
+    @Test
+    public void testSharedDefinition() {
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        final StateMachineDefinition<MySampleState, MySampleEvent> definition = stateMachine.compile();
+
+        StateMachine<MySampleState, MySampleEvent> first =
+                new StateMachine<MySampleState, MySampleEvent>(definition, MySampleState.CREATED);
+        StateMachine<MySampleState, MySampleEvent> second =
+                new StateMachine<MySampleState, MySampleEvent>(definition, MySampleState.ONHOLD);
+
+        try {
+            first.fire(MySampleEvent.HOLD);
+            second.fire(MySampleEvent.DELIVER);
+        } catch (TransitionException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(first.getCurrentState(), MySampleState.ONHOLD);
+        assertEquals(second.getCurrentState(), MySampleState.DELIVERED);
+        assertEquals(stateMachine.getCurrentState(), MySampleState.CREATED);
+
+        try {
+            first.transition().from(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).ignore().create();
+            assertEquals(true, false);
+        } catch (Exception e) {
+            assertTrue(e instanceof TransitionCreationException);
+        }
+    }
+
+    @Test
+    public void testTryFire() {
+        final int[] changes = new int[1];
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                changes[0]++;
+            }
+        });
+
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).when(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return false;
+                }
+            }).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).on(MySampleEvent.HOLD).ignore().create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(TransitionResult.NO_TRANSITION, stateMachine.tryFire(MySampleEvent.CANCEL));
+        assertEquals(TransitionResult.NO_TRANSITION, stateMachine.tryFire(MySampleEvent.DELIVER));
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(TransitionResult.IGNORED, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(TransitionResult.CONDITION_NOT_MET, stateMachine.tryFire(MySampleEvent.DELIVER));
+        assertEquals(stateMachine.getCurrentState(), MySampleState.ONHOLD);
+        assertEquals(1, changes[0]);
+    }
+
+    @Test
+    public void testTransitionTracer() {
+        final StringBuilder trace = new StringBuilder();
+        stateMachine.setTransitionTracer(new TransitionTracer<MySampleState, MySampleEvent>() {
+            @Override
+            public void trace(MySampleState from, MySampleEvent on, MySampleState to, TransitionResult result) {
+                trace.append(from).append(' ').append(on).append(' ').append(to).append(' ').append(result).append(';');
+            }
+        });
+
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            stateMachine.fire(MySampleEvent.HOLD);
+        } catch (TransitionException e) {
+            e.printStackTrace();
+        }
+        stateMachine.tryFire(MySampleEvent.HOLD);
+
+        assertEquals("CREATED HOLD ONHOLD TRANSITIONED;ONHOLD HOLD null NO_TRANSITION;", trace.toString());
+    }
+
+    @Test
+    public void testFireAll() {
+        final List<MySampleState> changes = new ArrayList<MySampleState>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                assertEquals(stateMachine.getCurrentState(), MySampleState.DELIVERED);
+                changes.add(to);
+            }
+        });
+
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+            stateMachine.transition().from(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).ignore().create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+        stateMachine.compile();
+
+        final int rejected = stateMachine.fireAll(new MySampleEvent[]{MySampleEvent.HOLD, MySampleEvent.DELIVER,
+                MySampleEvent.CANCEL, MySampleEvent.HOLD, MySampleEvent.CANCEL}, true);
+
+        assertEquals(3, rejected);
+        assertEquals(stateMachine.getCurrentState(), MySampleState.DELIVERED);
+        assertEquals(Arrays.asList(MySampleState.ONHOLD, MySampleState.DELIVERED), changes);
+    }
+
+    @Test
+    public void testFireAllIterable() {
+        try {
+            stateMachine.transitions().fromAny(MySampleState.CREATED, MySampleState.ONHOLD)
+                    .toAmong(MySampleState.ONHOLD, MySampleState.DELIVERED).onEach(MySampleEvent.HOLD, MySampleEvent.DELIVER).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(-1, stateMachine.fireAll(Arrays.asList(MySampleEvent.HOLD, MySampleEvent.DELIVER)));
+        assertEquals(stateMachine.getCurrentState(), MySampleState.DELIVERED);
+    }
+
+    @Test
+    public void testAsyncListenerDispatch() throws Exception {
+        final List<MySampleState> changes = Collections.synchronizedList(new ArrayList<MySampleState>());
+        final Thread caller = Thread.currentThread();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                assertTrue(Thread.currentThread() != caller);
+                changes.add(to);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        stateMachine.setListenerDispatcher(new AsyncListenerDispatcher(executor, 16));
+
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            stateMachine.fire(MySampleEvent.HOLD);
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.fireAsync(MySampleEvent.DELIVER).get(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(MySampleState.ONHOLD, MySampleState.DELIVERED), changes);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testAsyncListenerRejectedByExecutor() throws Exception {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        final List<MySampleState> changes = new ArrayList<MySampleState>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                changes.add(to);
+            }
+        });
+        final AtomicBoolean rejecting = new AtomicBoolean(true);
+        stateMachine.setListenerDispatcher(new AsyncListenerDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejecting.get()) throw new RejectedExecutionException("shutting down");
+                command.run();
+            }
+        }, 1));
+
+        try {
+            stateMachine.fire(MySampleEvent.HOLD);
+            fail("Rejection not reported");
+        } catch (RejectedExecutionException expected) {
+        }
+        rejecting.set(false);
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.fireAsync(MySampleEvent.DELIVER).get());
+        assertEquals(Arrays.asList(MySampleState.DELIVERED), changes);
+    }
+
+    @Test
+    public void testAsyncListenerFiringAndFailing() throws Exception {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        final IllegalStateException failure = new IllegalStateException("listener failed");
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                if (to == MySampleState.ONHOLD) stateMachine.tryFire(MySampleEvent.DELIVER);
+                else throw failure;
+            }
+        });
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AsyncListenerDispatcher dispatcher = new AsyncListenerDispatcher(executor, 1);
+        dispatcher.setFailureHandler(new AsyncListenerDispatcher.FailureHandler() {
+            @Override
+            public void onFailure(Throwable t) {
+                failures.add(t);
+            }
+        });
+        stateMachine.setListenerDispatcher(dispatcher);
+
+        stateMachine.fire(MySampleEvent.HOLD);
+        try {
+            stateMachine.fireAsync(MySampleEvent.CANCEL).get(5, TimeUnit.SECONDS);
+            fail("Listener failure not reported");
+        } catch (ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(MySampleState.DELIVERED, stateMachine.getCurrentState());
+        assertEquals(Arrays.<Throwable>asList(failure), failures);
+    }
+
+    @Test
+    public void testMultipleListeners() {
+        final List<String> calls = new ArrayList<String>();
+        stateMachine.addStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                calls.add("any " + to);
+            }
+        });
+        stateMachine.addStateChangeListener(null, MySampleState.DELIVERED, null, new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                calls.add("delivered " + from);
+            }
+        });
+
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD)
+                    .addOnSuccessListener(new Transition.onSuccessListener<MySampleState, MySampleEvent>() {
+                        @Override
+                        public void onSuccess(MySampleState from, MySampleState to, MySampleEvent on) {
+                            calls.add("first");
+                        }
+                    })
+                    .addOnSuccessListener(new Transition.onSuccessListener<MySampleState, MySampleEvent>() {
+                        @Override
+                        public void onSuccess(MySampleState from, MySampleState to, MySampleEvent on) {
+                            calls.add("second");
+                        }
+                    }).create();
+            stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+        stateMachine.compile();
+
+        assertEquals(-1, stateMachine.fireAll(new MySampleEvent[]{MySampleEvent.HOLD, MySampleEvent.DELIVER}));
+        assertEquals(Arrays.asList("first", "second", "any ONHOLD", "any DELIVERED", "delivered ONHOLD"), calls);
+    }
+
+    @Test
+    public void testOnSuccessListenersOfCreatedTransition() throws TransitionCreationException {
+        final List<String> calls = new ArrayList<String>();
+        final Transition<MySampleState, MySampleEvent> transition = new Transition<MySampleState, MySampleEvent>(
+                stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD)
+                        .setOnSuccessListener(new Transition.onSuccessListener<MySampleState, MySampleEvent>() {
+                            @Override
+                            public void onSuccess(MySampleState from, MySampleState to, MySampleEvent on) {
+                                calls.add("built");
+                            }
+                        }));
+        stateMachine.apply(transition);
+
+        final Transition.onSuccessListener<MySampleState, MySampleEvent> added = new Transition.onSuccessListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onSuccess(MySampleState from, MySampleState to, MySampleEvent on) {
+                calls.add("added " + from + " " + to);
+            }
+        };
+        transition.addOnSuccessListener(added);
+
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(Arrays.asList("built", "added CREATED ONHOLD"), calls);
+        assertEquals(2, transition.getOnSuccessListeners().length);
+        assertEquals(added, transition.getOnSuccessListeners()[1]);
+
+        transition.setOnSuccessListener(added);
+        stateMachine.setCurrentState(MySampleState.CREATED);
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(Arrays.asList("built", "added CREATED ONHOLD", "added CREATED ONHOLD"), calls);
+
+        transition.setOnSuccessListener(null);
+        assertNull(transition.getOnSuccessListener());
+        stateMachine.setCurrentState(MySampleState.CREATED);
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    public void testGuardWithContext() {
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).when(new Guard<MySampleState, MySampleEvent, Integer>() {
+                @Override
+                public boolean isMet(MySampleState from, MySampleEvent on, Integer quantity) {
+                    return from == MySampleState.CREATED && on == MySampleEvent.HOLD && quantity != null && quantity > 0;
+                }
+            }).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(TransitionResult.CONDITION_NOT_MET, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(TransitionResult.CONDITION_NOT_MET, stateMachine.tryFire(MySampleEvent.HOLD, 0));
+
+        try {
+            stateMachine.fireWithContext(MySampleEvent.HOLD, 2);
+        } catch (TransitionException e) {
+            e.printStackTrace();
+        }
+        assertEquals(stateMachine.getCurrentState(), MySampleState.ONHOLD);
+    }
+
+    @Test
+    public void testGuardContextType() throws TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).when(Integer.class, new Guard<MySampleState, MySampleEvent, Integer>() {
+            @Override
+            public boolean isMet(MySampleState from, MySampleEvent on, Integer quantity) {
+                return quantity != null && quantity > 0;
+            }
+        }).create();
+
+        try {
+            stateMachine.tryFire(MySampleEvent.HOLD, "2");
+            fail("Context of the wrong type");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(TransitionResult.CONDITION_NOT_MET, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD, 2));
+    }
+
+    @Test
+    public void testGuardedCandidatesForSameEvent() {
+        final Guard<MySampleState, MySampleEvent, Boolean> onHold = new Guard<MySampleState, MySampleEvent, Boolean>() {
+            @Override
+            public boolean isMet(MySampleState from, MySampleEvent on, Boolean hold) {
+                return Boolean.TRUE.equals(hold);
+            }
+        };
+
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.DELIVER).when(onHold).priority(1).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.DELIVER, true));
+            assertEquals(stateMachine.getCurrentState(), MySampleState.ONHOLD);
+
+            stateMachine.setCurrentState(MySampleState.CREATED);
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.DELIVER, false));
+            assertEquals(stateMachine.getCurrentState(), MySampleState.DELIVERED);
+
+            stateMachine.setCurrentState(MySampleState.CREATED);
+            stateMachine.compile();
+        }
+    }
+
+    @Test
+    public void testUnguardedTransitionOverwritesPrevious() {
+        try {
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+            stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.CANCELLED).on(MySampleEvent.HOLD).create();
+        } catch (TransitionCreationException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+        assertEquals(stateMachine.getCurrentState(), MySampleState.CANCELLED);
+    }
+
+    @Test
+    public void testGuardedTransitionReplacesUnconditionalOne() throws TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.DELIVER).when(new Condition() {
+            @Override
+            public boolean isMet() {
+                return false;
+            }
+        }).create();
+
+        assertEquals(TransitionResult.CONDITION_NOT_MET, stateMachine.tryFire(MySampleEvent.DELIVER));
+        assertEquals(MySampleState.CREATED, stateMachine.getCurrentState());
+        assertEquals(1, stateMachine.compile().validate(MySampleState.CREATED).getOverwrittenTransitions().size());
+    }
+
+    @Test
+    public void testShadowedTransitionsAreReported() throws TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.DELIVER).when(new Condition() {
+            @Override
+            public boolean isMet() {
+                return true;
+            }
+        }).create();
+        stateMachine.transition().from(MySampleState.CREATED).on(MySampleEvent.DELIVER).ignore().priority(1).create();
+        stateMachine.transition().fromAnyState().to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).priority(1).create();
+        stateMachine.transition().fromAnyState().to(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).create();
+
+        assertEquals(TransitionResult.IGNORED, stateMachine.tryFire(MySampleEvent.DELIVER));
+        final DefinitionReport<MySampleState, MySampleEvent> report = stateMachine.compile().validate(MySampleState.CREATED);
+        assertFalse(report.isValid());
+        assertEquals(2, report.getShadowedTransitions().size());
+        assertEquals(MySampleState.ONHOLD, report.getShadowedTransitions().get(0).getTo());
+        assertEquals(MySampleState.DELIVERED, report.getShadowedTransitions().get(1).getTo());
+        assertTrue(report.toString().contains("Shadowed transitions: CREATED on DELIVER, any state on CANCEL"));
+    }
+
+    @Test
+    public void testSubstatesInheritParentTransitions() throws TransitionCreationException {
+        stateMachine.substates(MySampleState.CREATED, MySampleState.ONHOLD);
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).when(new Condition() {
+            @Override
+            public boolean isMet() {
+                return false;
+            }
+        }).create();
+
+        final List<MySampleState> from = new ArrayList<MySampleState>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState fromState, MySampleState toState, MySampleEvent on) {
+                from.add(fromState);
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            stateMachine.setCurrentState(MySampleState.ONHOLD);
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.CANCEL));
+            assertEquals(MySampleState.CANCELLED, stateMachine.getCurrentState());
+            assertEquals(i == 1, stateMachine.isCompiled());
+            stateMachine.compile();
+        }
+        assertEquals(Arrays.asList(MySampleState.ONHOLD, MySampleState.ONHOLD), from);
+        assertEquals(MySampleState.CREATED, stateMachine.getDefinition().getParentState(MySampleState.ONHOLD));
+    }
+
+    @Test
+    public void testDeferredListenersOfInheritedTransitions() throws TransitionCreationException {
+        stateMachine.substates(MySampleState.CREATED, MySampleState.ONHOLD);
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+
+        final List<String> changes = new ArrayList<String>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                changes.add(from + " " + on + " " + to);
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            stateMachine.setCurrentState(MySampleState.ONHOLD);
+            assertEquals(-1, stateMachine.fireAll(new MySampleEvent[]{MySampleEvent.CANCEL}, true));
+            stateMachine.compile();
+        }
+        assertEquals(Arrays.asList("ONHOLD CANCEL CANCELLED", "ONHOLD CANCEL CANCELLED"), changes);
+    }
+
+    @Test
+    public void testSubstatesInheritParentWildcards() throws TransitionCreationException {
+        stateMachine.substates(MySampleState.CREATED, MySampleState.ONHOLD);
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.CANCELLED).onAnyEvent().create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+
+        final List<String> changes = new ArrayList<String>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                changes.add(from + " " + on + " " + to);
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            stateMachine.setCurrentState(MySampleState.ONHOLD);
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+            stateMachine.setCurrentState(MySampleState.ONHOLD);
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.DELIVER));
+            stateMachine.compile();
+        }
+
+        assertEquals(Arrays.asList("ONHOLD HOLD CANCELLED", "ONHOLD DELIVER DELIVERED",
+                "ONHOLD HOLD CANCELLED", "ONHOLD DELIVER DELIVERED"), changes);
+    }
+
+    @Test(expected = TransitionCreationException.class)
+    public void testSubstateCycle() throws TransitionCreationException {
+        stateMachine.substates(MySampleState.CREATED, MySampleState.ONHOLD);
+        stateMachine.substates(MySampleState.ONHOLD, MySampleState.CREATED);
+    }
+
+    @Test
+    public void testWildcardTransitions() throws TransitionCreationException {
+        stateMachine.transition().fromAnyState().to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.transition().from(MySampleState.DELIVERED).on(MySampleEvent.CANCEL).ignore().create();
+        stateMachine.transition().from(MySampleState.CANCELLED).onAnyEvent().ignore().create();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+
+        final List<String> changes = new ArrayList<String>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                changes.add(from + " " + on + " " + to);
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            stateMachine.setCurrentState(MySampleState.CREATED);
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.HOLD));
+            assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.CANCEL));
+            assertEquals(MySampleState.CANCELLED, stateMachine.getCurrentState());
+            assertEquals(TransitionResult.IGNORED, stateMachine.tryFire(MySampleEvent.DELIVER));
+
+            stateMachine.setCurrentState(MySampleState.DELIVERED);
+            assertEquals(TransitionResult.IGNORED, stateMachine.tryFire(MySampleEvent.CANCEL));
+            assertEquals(TransitionResult.NO_TRANSITION, stateMachine.tryFire(MySampleEvent.HOLD));
+            stateMachine.compile();
+        }
+        assertEquals(Arrays.asList("CREATED HOLD ONHOLD", "ONHOLD CANCEL CANCELLED",
+                "CREATED HOLD ONHOLD", "ONHOLD CANCEL CANCELLED"), changes);
+
+        final StateMachineDefinition<MySampleState, MySampleEvent> definition = stateMachine.getDefinition();
+        assertTrue(definition.isEnumTable());
+        assertEquals(MySampleState.CANCELLED.ordinal(), definition.nextOrdinal(MySampleState.ONHOLD.ordinal(), MySampleEvent.CANCEL.ordinal()));
+        assertEquals(StateMachineDefinition.IGNORED, definition.nextOrdinal(MySampleState.CANCELLED.ordinal(), MySampleEvent.CREATE.ordinal()));
+    }
+
+    @Test
+    public void testMetrics() throws TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).on(MySampleEvent.HOLD).ignore().create();
+        TransitionMetrics<MySampleState, MySampleEvent> metrics =
+                new TransitionMetrics<MySampleState, MySampleEvent>(stateMachine.compile(), true);
+        stateMachine.setMetrics(metrics);
+
+        stateMachine.tryFire(MySampleEvent.HOLD);
+        stateMachine.tryFire(MySampleEvent.HOLD);
+        stateMachine.tryFire(MySampleEvent.DELIVER);
+        metrics.setEnabled(false);
+        stateMachine.tryFire(MySampleEvent.DELIVER);
+
+        assertEquals(1, metrics.getCount(MySampleState.CREATED, MySampleEvent.HOLD, MySampleState.ONHOLD));
+        assertEquals(1, metrics.getCount(MySampleState.ONHOLD, MySampleEvent.HOLD, TransitionResult.IGNORED));
+        assertEquals(1, metrics.getCount(MySampleState.ONHOLD, MySampleEvent.DELIVER, TransitionResult.NO_TRANSITION));
+        assertEquals(1, metrics.getTotal(TransitionResult.NO_TRANSITION));
+        assertEquals(3, metrics.getGuardLatencies().getCount());
+        assertEquals(1, metrics.getListenerLatencies().getCount());
+
+        final List<String> reported = new ArrayList<String>();
+        metrics.report(new MetricsSink<MySampleState, MySampleEvent>() {
+            @Override
+            public void counter(MySampleState from, MySampleEvent on, MySampleState to, TransitionResult result, long count) {
+                reported.add(from + " " + on + " " + to + " " + result + " " + count);
+            }
+
+            @Override
+            public void histogram(String name, LatencyHistogram histogram) {
+                reported.add(name + " " + histogram.getCount());
+            }
+        });
+        assertEquals(Arrays.asList("CREATED HOLD ONHOLD TRANSITIONED 1", "ONHOLD HOLD null IGNORED 1",
+                "ONHOLD DELIVER null NO_TRANSITION 1", "guard 3", "listeners 1"), reported);
+    }
+
+    @Test
+    public void testMetricsPerTarget() throws TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.DELIVER)
+                .when(new Guard<MySampleState, MySampleEvent, Boolean>() {
+                    @Override
+                    public boolean isMet(MySampleState from, MySampleEvent on, Boolean hold) {
+                        return Boolean.TRUE.equals(hold);
+                    }
+                }).priority(1).create();
+        TransitionMetrics<MySampleState, MySampleEvent> metrics =
+                new TransitionMetrics<MySampleState, MySampleEvent>(stateMachine.compile());
+        stateMachine.setMetrics(metrics);
+
+        for (int i = 0; i < 3; i++) {
+            stateMachine.setCurrentState(MySampleState.CREATED);
+            stateMachine.tryFire(MySampleEvent.DELIVER, i == 0);
+        }
 
+        assertEquals(1, metrics.getCount(MySampleState.CREATED, MySampleEvent.DELIVER, MySampleState.ONHOLD));
+        assertEquals(2, metrics.getCount(MySampleState.CREATED, MySampleEvent.DELIVER, MySampleState.DELIVERED));
+        assertEquals(0, metrics.getCount(MySampleState.CREATED, MySampleEvent.DELIVER, MySampleState.CANCELLED));
+    }
+
+    @Test
+    public void testRunToCompletion() throws TransitionException, TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.DELIVERED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.setRunToCompletion(4);
+
+        final List<String> calls = new ArrayList<String>();
+        final List<TransitionResult> results = new ArrayList<TransitionResult>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                calls.add("enter " + to);
+                if (to == MySampleState.ONHOLD) {
+                    results.add(stateMachine.tryFire(MySampleEvent.DELIVER));
+                    results.add(stateMachine.tryFire(MySampleEvent.CANCEL));
+                }
+                calls.add("exit " + to);
+            }
+        });
+
+        stateMachine.fire(MySampleEvent.HOLD);
+
+        assertEquals(Arrays.asList(TransitionResult.QUEUED, TransitionResult.QUEUED), results);
+        assertEquals(Arrays.asList("enter ONHOLD", "exit ONHOLD", "enter DELIVERED", "exit DELIVERED",
+                "enter CANCELLED", "exit CANCELLED"), calls);
+        assertEquals(MySampleState.CANCELLED, stateMachine.getCurrentState());
+    }
+
+    @Test
+    public void testRunToCompletionListenerOverflowingQueue() throws TransitionException, TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.DELIVERED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.setRunToCompletion(2);
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                if (to == MySampleState.ONHOLD) {
+                    stateMachine.tryFire(MySampleEvent.DELIVER);
+                } else if (to == MySampleState.DELIVERED) {
+                    stateMachine.tryFire(MySampleEvent.CANCEL);
+                    stateMachine.tryFire(MySampleEvent.HOLD);
+                    stateMachine.tryFire(MySampleEvent.DELIVER);
+                }
+            }
+        });
+
+        try {
+            stateMachine.fire(MySampleEvent.HOLD);
+            fail("Queue overflow not reported");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(MySampleState.CANCELLED, stateMachine.getCurrentState());
+
+        stateMachine.setCurrentState(MySampleState.DELIVERED);
+        assertEquals(TransitionResult.TRANSITIONED, stateMachine.tryFire(MySampleEvent.CANCEL));
+        assertEquals(MySampleState.CANCELLED, stateMachine.getCurrentState());
+    }
+
+    @Test
+    public void testRunToCompletionQueuesBatchFromListener() throws TransitionException, TransitionCreationException {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.DELIVERED).on(MySampleEvent.DELIVER).create();
+        stateMachine.transition().from(MySampleState.DELIVERED).to(MySampleState.CANCELLED).on(MySampleEvent.CANCEL).create();
+        stateMachine.setRunToCompletion(4);
+
+        final List<String> calls = new ArrayList<String>();
+        stateMachine.setStateChangeListener(new StateMachine.StateChangeListener<MySampleState, MySampleEvent>() {
+            @Override
+            public void onStateChanged(MySampleState from, MySampleState to, MySampleEvent on) {
+                calls.add("enter " + to);
+                if (to == MySampleState.ONHOLD) {
+                    calls.add("batch " + stateMachine.fireAll(new MySampleEvent[]{MySampleEvent.DELIVER, MySampleEvent.CANCEL}));
+                }
+                calls.add("exit " + to);
+            }
+        });
+
+        assertEquals(-1, stateMachine.fireAll(new MySampleEvent[]{MySampleEvent.HOLD}));
+
+        assertEquals(Arrays.asList("enter ONHOLD", "batch -1", "exit ONHOLD", "enter DELIVERED", "exit DELIVERED",
+                "enter CANCELLED", "exit CANCELLED"), calls);
+        assertEquals(MySampleState.CANCELLED, stateMachine.getCurrentState());
+    }
+
+    @Test
+    public void testRunToCompletionFromManyThreads() throws Exception {
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(MySampleState.CREATED).on(MySampleEvent.CREATE).create();
+        stateMachine.setRunToCompletion(1024);
+        final TransitionMetrics<MySampleState, MySampleEvent> metrics =
+                new TransitionMetrics<MySampleState, MySampleEvent>(stateMachine.compile());
+        stateMachine.setMetrics(metrics);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        while (!stateMachine.post(i % 2 == 0 ? MySampleEvent.HOLD : MySampleEvent.CREATE, null)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        long handled = 0;
+        for (TransitionResult result : TransitionResult.values()) handled += metrics.getTotal(result);
+        assertEquals(4000, handled);
+    }
 }
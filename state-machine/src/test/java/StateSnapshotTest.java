@@ -0,0 +1,138 @@
+import TestUtil.MySampleEvent;
+import TestUtil.MySampleState;
+import com.himanshuvirmani.StateMachine;
+import com.himanshuvirmani.StateMachineDefinition;
+import com.himanshuvirmani.StateMachineRegistry;
+import com.himanshuvirmani.StateSnapshot;
+import com.himanshuvirmani.exceptions.TransitionCreationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StateSnapshotTest {
+
+    StateMachineDefinition<MySampleState, MySampleEvent> definition;
+
+    @Before
+    public void init() throws TransitionCreationException {
+        definition = build(MySampleState.DELIVERED);
+    }
+
+    private static StateMachineDefinition<MySampleState, MySampleEvent> build(MySampleState delivered)
+            throws TransitionCreationException {
+        StateMachine<MySampleState, MySampleEvent> stateMachine = new StateMachine<MySampleState, MySampleEvent>();
+        stateMachine.transition().from(MySampleState.CREATED).to(MySampleState.ONHOLD).on(MySampleEvent.HOLD).create();
+        stateMachine.transition().from(MySampleState.ONHOLD).to(delivered).on(MySampleEvent.DELIVER).create();
+        return stateMachine.compile();
+    }
+
+    @Test
+    public void testMachinesRoundTrip() throws IOException {
+        List<StateMachine<MySampleState, MySampleEvent>> machines = new ArrayList<StateMachine<MySampleState, MySampleEvent>>();
+        for (int i = 0; i < 100000; i++) {
+            machines.add(new StateMachine<MySampleState, MySampleEvent>(definition,
+                    i % 7 == 0 ? null : MySampleState.values()[i % MySampleState.values().length]));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(definition, machines, Channels.newChannel(out));
+
+        List<StateMachine<MySampleState, MySampleEvent>> restored = StateSnapshot.readMachines(definition,
+                Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(machines.size(), restored.size());
+        for (int i = 0; i < machines.size(); i++) {
+            assertEquals(machines.get(i).getCurrentState(), restored.get(i).getCurrentState());
+        }
+        assertNull(restored.get(0).getCurrentState());
+    }
+
+    @Test
+    public void testOrdinalsFromBuffer() throws IOException {
+        int[] ordinals = {0, 1, 2, -1, 1};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(definition, ordinals, Channels.newChannel(out));
+
+        assertArrayEquals(ordinals, StateSnapshot.readOrdinals(definition, ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    public void testNegativeOrdinalsWrittenAsNoState() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(definition, new int[]{-2, 1, Integer.MIN_VALUE}, Channels.newChannel(out));
+
+        assertArrayEquals(new int[]{-1, 1, -1}, StateSnapshot.readOrdinals(definition, ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteOrdinalOutOfRange() throws IOException {
+        StateSnapshot.write(definition, new int[]{0, MySampleState.values().length + 255},
+                Channels.newChannel(new ByteArrayOutputStream()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRegistryEntityWithoutState() throws IOException {
+        StateMachineRegistry<String, MySampleState, MySampleEvent> registry =
+                new StateMachineRegistry<String, MySampleState, MySampleEvent>(definition);
+        registry.register("a", MySampleState.CREATED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(registry, StateSnapshot.STRING_KEYS, Channels.newChannel(out));
+        byte[] bytes = out.toByteArray();
+        // header of 19 bytes, block count of 4 and key size of 2, then the key and its single byte wide ordinal
+        assertEquals(0, bytes[26]);
+        bytes[26] = (byte) -1;
+
+        StateSnapshot.read(new StateMachineRegistry<String, MySampleState, MySampleEvent>(definition),
+                StateSnapshot.STRING_KEYS, ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testRegistryRoundTrip() throws IOException {
+        StateMachineRegistry<String, MySampleState, MySampleEvent> registry =
+                new StateMachineRegistry<String, MySampleState, MySampleEvent>(definition);
+        for (int i = 0; i < 20000; i++) {
+            registry.register("order-" + i, i % 2 == 0 ? MySampleState.CREATED : MySampleState.ONHOLD);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(registry, StateSnapshot.STRING_KEYS, Channels.newChannel(out));
+
+        StateMachineRegistry<String, MySampleState, MySampleEvent> restored =
+                new StateMachineRegistry<String, MySampleState, MySampleEvent>(definition);
+        assertEquals(20000, StateSnapshot.read(restored, StateSnapshot.STRING_KEYS,
+                Channels.newChannel(new ByteArrayInputStream(out.toByteArray()))));
+        assertEquals(20000, restored.size());
+        assertEquals(MySampleState.CREATED, restored.getState("order-0"));
+        assertEquals(MySampleState.ONHOLD, restored.getState("order-19999"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testFingerprintMismatch() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(definition, Arrays.asList(
+                new StateMachine<MySampleState, MySampleEvent>(definition, MySampleState.CREATED)), Channels.newChannel(out));
+
+        StateSnapshot.readOrdinals(build(MySampleState.CREATED), ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOrdinalOutOfRange() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StateSnapshot.write(definition, new int[]{0}, Channels.newChannel(out));
+        byte[] bytes = out.toByteArray();
+        // header of 19 bytes and block count of 4, then the single byte wide ordinal
+        assertEquals(0, bytes[23]);
+        bytes[23] = (byte) MySampleState.values().length;
+
+        StateSnapshot.readOrdinals(definition, ByteBuffer.wrap(bytes));
+    }
+}